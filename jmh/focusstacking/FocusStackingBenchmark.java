@@ -0,0 +1,41 @@
+package focusstacking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FocusStacking's pixel wise fusion and its tiled Laplacian pyramid fusion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class FocusStackingBenchmark {
+    @Param({"4"})
+    public int threads;
+
+    @Benchmark
+    public void stack(StackInput input) {
+        new FocusStacking("", "").stack(input.stack).release();
+    }
+
+    @Benchmark
+    public void pyramid(StackInput input) {
+        FocusStacking pyramidFusion = new FocusStacking("", "");
+        pyramidFusion.setParallelism(threads);
+        pyramidFusion.setPyramidFusion(5, 1024);
+        pyramidFusion.stack(input.stack).release();
+    }
+}
@@ -0,0 +1,118 @@
+package focusstacking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of GeneralizedFocus: the focus measure kernel, the focus maps, the set cover (covering sets, background
+ * detection and reduceSelectionMap), the selection among the maps and the tile composition
+ * Every stage runs on the proxies of the same filled engine, its grid is a parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class GeneralizedFocusBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+        @Param({"16x24"})
+        public String grid;
+        @Param({"4"})
+        public int threads;
+        @Param({"true", "false"})
+        public boolean simd;
+
+        int[] cells;
+        GeneralizedFocus engine;
+        List<Integer> all;
+
+        @Setup(Level.Trial)
+        public void fill(StackInput input) {
+            Simd.setEnabled(simd);
+            cells = StackInput.dimensions(grid, 2);
+            engine = new GeneralizedFocus("", "", cells[0], cells[1], 90, 30);
+            engine.setParallelism(threads);
+            engine.fill(input.stack);
+            all = new ArrayList<>();
+            for (int i = 0; i < engine.getLowRes().size(); i++) {
+                all.add(i);
+            }
+            engine.setFocusMeasureMapAndMem(all, FocusMeasure.IMPROVED);
+        }
+
+        @TearDown(Level.Trial)
+        public void enableSimd() {
+            Simd.setEnabled(true);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Measure {
+        @Param
+        public FocusMeasure measure;
+    }
+
+    /**
+     * The selected images decoded and selected among, ready to be composed
+     */
+    @State(Scope.Benchmark)
+    public static class Composition {
+        @Setup(Level.Trial)
+        public void select(Engine engine) {
+            engine.engine.selectImages();
+            engine.engine.decodeSelectedImages();
+            engine.engine.selectAmong(engine.engine.getSelectedImages());
+        }
+    }
+
+    @Benchmark
+    public void focusMeasure(Engine engine, Measure measure, Blackhole blackhole) {
+        for (GrayImage proxy : engine.engine.getLowRes()) {
+            int rowDif = proxy.rows / engine.cells[0];
+            int colDif = proxy.cols / engine.cells[1];
+            for (int r = 0; r < engine.cells[0]; r++) {
+                for (int c = 0; c < engine.cells[1]; c++) {
+                    blackhole.consume(measure.measure.measure(proxy, r * rowDif, c * colDif, rowDif, colDif));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void focusMaps(Engine engine) {
+        engine.engine.setFocusMeasureMapAndMem(engine.all, FocusMeasure.IMPROVED);
+    }
+
+    @Benchmark
+    public CellSet setCover(Engine engine) {
+        return engine.engine.setCover();
+    }
+
+    @Benchmark
+    public void selectAmong(Engine engine) {
+        engine.engine.selectAmong(engine.all);
+    }
+
+    @Benchmark
+    public Object compose(Engine engine, Composition composition) {
+        return engine.engine.compose();
+    }
+}
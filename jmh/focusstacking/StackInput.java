@@ -0,0 +1,66 @@
+package focusstacking;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The stack a benchmark runs on: a scene folder (relative to the working directory, run the benchmarks from the root
+ * of the repository) or a deterministic synthetic stack "synthetic:WIDTHxHEIGHTxDEPTH", see SyntheticStack
+ * Other inputs are given on the command line, e.g. -p input=Images/aligned/scene3,synthetic:4000x3000x20
+ */
+@State(Scope.Benchmark)
+public class StackInput {
+    @Param({"synthetic:2000x1500x10", "Images/aligned/scene1"})
+    public String input;
+
+    List<Mat> stack;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        OpenCv.load();
+        if (input.startsWith("synthetic:")) {
+            int[] size = dimensions(input.substring("synthetic:".length()), 3);
+            stack = SyntheticStack.generate(size[0], size[1], size[2], 42);
+            return;
+        }
+        File[] files = new File(input).listFiles(File::isFile);
+        if (files == null || files.length == 0) throw new IOException("directory : " + input + " doesn't exist or is empty");
+        Arrays.sort(files);
+        stack = new ArrayList<>();
+        for (File file : files) {
+            stack.add(Imgcodecs.imread(file.getPath()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void release() {
+        stack.forEach(Mat::release);
+    }
+
+    /**
+     * "16x24" -> {16, 24}
+     */
+    static int[] dimensions(String value, int count) {
+        String[] parts = value.toLowerCase().split("x");
+        if (parts.length != count) {
+            throw new IllegalArgumentException("expected " + count + " dimensions separated by x but got " + value);
+        }
+        int[] dimensions = new int[count];
+        for (int i = 0; i < count; i++) {
+            dimensions[i] = Integer.parseInt(parts[i]);
+        }
+        return dimensions;
+    }
+}
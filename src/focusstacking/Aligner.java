@@ -0,0 +1,156 @@
+package focusstacking;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.DMatch;
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.features2d.DescriptorMatcher;
+import org.opencv.features2d.SIFT;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aligns the images of a stack to its first image, the same way main.py does it but without writing the aligned
+ * images to disk: SIFT keypoints, brute force knn matching with Lowe's ratio test (0.7), the 128 best matches and a
+ * RANSAC homography (reprojection threshold 2.0) which warps the image onto the reference
+ * The keypoints of the reference are computed once, the other images are matched in parallel and the warped Mats
+ * can be given straight to GeneralizedFocus.fill(List)
+ */
+public final class Aligner {
+    private static final double RATIO = 0.7;
+    private static final int MAX_MATCHES = 128;
+    private static final double RANSAC_THRESHOLD = 2.0;
+
+    private final int parallelism;
+    private Mat reference;
+    private KeyPoint[] referenceKeyPoints;
+    private Mat referenceDescriptors;
+
+    /**
+     * @param parallelism number of images matched and warped at the same time
+     */
+    Aligner(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reads the images of a directory in name order (jpg, jpeg and png only, like main.py)
+     */
+    static List<Mat> read(String inputPath) {
+        File[] files = new File(inputPath).listFiles(File::isFile);
+        List<Mat> images = new ArrayList<>();
+        if (files == null) {
+            System.out.println("directory : " + inputPath + " doesn't exist");
+            return images;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                images.add(Imgcodecs.imread(file.getPath()));
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Aligns every image to images.get(0)
+     *
+     * @return the reference followed by the warped images, in the order of images (the warped Mats are new and owned
+     * by the caller, the reference is the given Mat)
+     */
+    List<Mat> align(List<Mat> images) {
+        if (images.isEmpty()) return new ArrayList<>();
+        setReference(images.get(0));
+        Mat[] aligned = new Mat[images.size()];
+        aligned[0] = images.get(0);
+        Parallel.forEach(parallelism, images.size() - 1, i -> aligned[i + 1] = align(images.get(i + 1)));
+        return new ArrayList<>(Arrays.asList(aligned));
+    }
+
+    /**
+     * Computes the keypoints and descriptors of the reference, they are kept for every following align(Mat)
+     */
+    void setReference(Mat image) {
+        if (image == reference) return;
+        if (referenceDescriptors != null) referenceDescriptors.release();
+        MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+        referenceDescriptors = new Mat();
+        detect(image, keyPoints, referenceDescriptors);
+        referenceKeyPoints = keyPoints.toArray();
+        keyPoints.release();
+        reference = image;
+    }
+
+    /**
+     * Warps one image onto the reference, a copy of the image is returned when no homography can be found
+     */
+    Mat align(Mat image) {
+        MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+        Mat descriptors = new Mat();
+        detect(image, keyPoints, descriptors);
+        KeyPoint[] points = keyPoints.toArray();
+        keyPoints.release();
+
+        List<MatOfDMatch> pairs = new ArrayList<>();
+        DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE).knnMatch(descriptors, referenceDescriptors, pairs, 2);
+        descriptors.release();
+        List<DMatch> matches = new ArrayList<>();
+        for (MatOfDMatch pair : pairs) {
+            DMatch[] m = pair.toArray();
+            if (m.length == 2 && m[0].distance < RATIO * m[1].distance) {
+                matches.add(m[0]);
+            }
+            pair.release();
+        }
+        matches.sort((a, b) -> Float.compare(a.distance, b.distance));
+        if (matches.size() > MAX_MATCHES) matches = matches.subList(0, MAX_MATCHES);
+
+        Mat aligned = new Mat();
+        if (matches.size() < 4) {
+            System.out.println("only " + matches.size() + " matches, the image is used without alignment");
+            image.copyTo(aligned);
+            return aligned;
+        }
+        Point[] source = new Point[matches.size()];
+        Point[] target = new Point[matches.size()];
+        for (int i = 0; i < matches.size(); i++) {
+            source[i] = points[matches.get(i).queryIdx].pt;
+            target[i] = referenceKeyPoints[matches.get(i).trainIdx].pt;
+        }
+        MatOfPoint2f sourcePoints = new MatOfPoint2f(source);
+        MatOfPoint2f targetPoints = new MatOfPoint2f(target);
+        Mat homography = Calib3d.findHomography(sourcePoints, targetPoints, Calib3d.RANSAC, RANSAC_THRESHOLD);
+        sourcePoints.release();
+        targetPoints.release();
+        if (homography.empty()) {
+            System.out.println("no homography found, the image is used without alignment");
+            image.copyTo(aligned);
+        } else {
+            Imgproc.warpPerspective(image, aligned, homography, image.size(), Imgproc.INTER_LINEAR);
+        }
+        homography.release();
+        return aligned;
+    }
+
+    /**
+     * SIFT keeps state while detecting, so every call gets its own instance (the same for the matcher)
+     */
+    private static void detect(Mat image, MatOfKeyPoint keyPoints, Mat descriptors) {
+        Mat gray = new Mat();
+        Mat mask = new Mat();
+        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        SIFT.create().detectAndCompute(gray, mask, keyPoints, descriptors);
+        gray.release();
+        mask.release();
+    }
+}
@@ -0,0 +1,192 @@
+package focusstacking;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Runs the stacks of several scene folders concurrently
+ * A scene is only started when its estimated native memory fits into the remaining budget, scenes which are bigger
+ * than the whole budget run alone. A failing scene is recorded in the summary and doesn't stop the others.
+ * The scene tasks mostly wait on decoding and encoding, so they run on virtual threads when the JVM provides them
+ * (Java 21+) and on a pool of maxConcurrentScenes threads otherwise; the CPU heavy stages share the ForkJoin pools of
+ * Parallel. A scene takes its slot before anything else, so at most maxConcurrentScenes scenes read their headers or
+ * wait for memory at the same time, however many scenes there are.
+ */
+public final class BatchScheduler {
+    private static final long MIB = 1 << 20;
+
+    private final long memoryBudget;
+    private final int maxConcurrentScenes;
+    private final boolean integralImages;
+
+    /**
+     * @param memoryBudget        native memory in bytes the running scenes may use together
+     * @param maxConcurrentScenes upper bound of scenes running at the same time
+     * @param integralImages      whether the scenes keep integral images (8 bytes per low res pixel and image)
+     */
+    BatchScheduler(long memoryBudget, int maxConcurrentScenes, boolean integralImages) {
+        this.memoryBudget = memoryBudget;
+        this.maxConcurrentScenes = maxConcurrentScenes;
+        this.integralImages = integralImages;
+    }
+
+    /**
+     * Outcome of one scene
+     */
+    static final class SceneResult {
+        final String scene;
+        final long estimatedBytes;
+        final long millis;
+        final Throwable failure;
+
+        SceneResult(String scene, long estimatedBytes, long millis, Throwable failure) {
+            this.scene = scene;
+            this.estimatedBytes = estimatedBytes;
+            this.millis = millis;
+            this.failure = failure;
+        }
+
+        boolean succeeded() {
+            return failure == null;
+        }
+    }
+
+    /**
+     * Stacks every scene folder with the given task and waits until all of them are done
+     *
+     * @return one result per scene, in the order of the scenes
+     */
+    List<SceneResult> run(List<File> scenes, Consumer<File> stack) {
+        int budgetMiB = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / MIB));
+        Semaphore memory = new Semaphore(budgetMiB, true);
+        Semaphore slots = new Semaphore(Math.max(1, maxConcurrentScenes), true);
+        ExecutorService executor = newSceneExecutor(Math.max(1, maxConcurrentScenes));
+        List<Future<SceneResult>> futures = new ArrayList<>();
+        try {
+            for (File scene : scenes) {
+                futures.add(executor.submit(() -> {
+                    slots.acquire();
+                    try {
+                        long estimate;
+                        try {
+                            estimate = estimateNativeBytes(scene);
+                        } catch (IOException | RuntimeException e) {
+                            return new SceneResult(scene.getName(), 0, 0, e);
+                        }
+                        int permits = (int) Math.min(budgetMiB, Math.max(1, (estimate + MIB - 1) / MIB));
+                        memory.acquire(permits);
+                        long start = System.nanoTime();
+                        try {
+                            stack.accept(scene);
+                            return new SceneResult(scene.getName(), estimate, (System.nanoTime() - start) / 1_000_000, null);
+                        } catch (Throwable t) {
+                            return new SceneResult(scene.getName(), estimate, (System.nanoTime() - start) / 1_000_000, t);
+                        } finally {
+                            memory.release(permits);
+                        }
+                    } finally {
+                        slots.release();
+                    }
+                }));
+            }
+            List<SceneResult> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new SceneResult(scenes.get(i).getName(), 0, 0, e.getCause()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(new SceneResult(scenes.get(i).getName(), 0, 0, e));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Prints one line per scene and the number of failed scenes
+     */
+    static void printSummary(List<SceneResult> results) {
+        String[][] table = new String[results.size() + 1][];
+        table[0] = new String[]{"scene", "status", "time (ms)", "estimate (MiB)", "error"};
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            SceneResult result = results.get(i);
+            if (!result.succeeded()) failed++;
+            table[i + 1] = new String[]{
+                    result.scene,
+                    result.succeeded() ? "ok" : "FAILED",
+                    Long.toString(result.millis),
+                    Long.toString(result.estimatedBytes / MIB),
+                    result.succeeded() ? "" : String.valueOf(result.failure)};
+        }
+        new PrettyPrinter(System.out).print(table);
+        System.out.printf("%d of %d scenes failed\n", failed, results.size());
+    }
+
+    /**
+     * Upper bound of the memory GeneralizedFocus needs for the scene, from the dimensions of its first image (only the
+     * header is read) and the stack size: every full resolution image could be selected, plus the output and the
+     * row/column concatenation buffers, plus the 1/8 grayscale proxies (and their integral images), plus the files
+     * fill() keeps encoded on the heap until the selection is known
+     */
+    long estimateNativeBytes(File scene) throws IOException {
+        File[] files = scene.listFiles(File::isFile);
+        if (files == null || files.length == 0) {
+            throw new IOException("directory : " + scene + " doesn't exist or is empty");
+        }
+        int[] size = imageSize(files[0]);
+        long pixels = (long) size[0] * size[1];
+        long proxyPixels = pixels / 64;
+        long fullResolution = pixels * 3 * (files.length + 3);
+        long proxies = proxyPixels * files.length * (integralImages ? 9 : 1);
+        long encoded = 0;
+        for (File file : files) {
+            encoded += file.length();
+        }
+        return fullResolution + proxies + encoded;
+    }
+
+    private static int[] imageSize(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("can't read the size of " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Virtual threads cost nothing while they wait for their slot, platform threads do, so without virtual threads
+     * there are only as many as scenes may run
+     */
+    private static ExecutorService newSceneExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package focusstacking;
+
+/**
+ * Fixed size set of grid cells (cell index r * nCols + c) stored as a bitmap of long words
+ * The set operations work in place, so the selection stage doesn't allocate once its sets exist
+ */
+public final class CellSet {
+    private final long[] words;
+    private final int capacity;
+
+    CellSet(int capacity) {
+        this.capacity = capacity;
+        this.words = new long[(capacity + 63) >>> 6];
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    void add(int cell) {
+        words[cell >>> 6] |= 1L << cell;
+    }
+
+    boolean contains(int cell) {
+        return (words[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Number of cells in the set
+     */
+    int size() {
+        int size = 0;
+        for (long word : words) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
+
+    CellSet copyFrom(CellSet other) {
+        System.arraycopy(other.words, 0, words, 0, words.length);
+        return this;
+    }
+
+    /**
+     * this becomes the intersection of this and other
+     */
+    CellSet and(CellSet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= other.words[i];
+        }
+        return this;
+    }
+
+    /**
+     * this becomes the union of this and other
+     */
+    CellSet or(CellSet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+        return this;
+    }
+
+    /**
+     * this becomes this without the cells of other
+     */
+    CellSet andNot(CellSet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~other.words[i];
+        }
+        return this;
+    }
+}
@@ -0,0 +1,61 @@
+package focusstacking;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * The bytes of an image file, read once and decoded in memory as often as needed (at full resolution, as a reduced
+ * proxy, ...) without touching the file again. Compressed images are a fraction of their decoded size, so keeping
+ * them is much cheaper than keeping the decoded images.
+ */
+public final class EncodedImage {
+    final String name;
+    private final byte[] bytes;
+
+    private EncodedImage(String name, byte[] bytes) {
+        this.name = name;
+        this.bytes = bytes;
+    }
+
+    static EncodedImage read(File file) throws IOException {
+        return new EncodedImage(file.getName(), Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Decodes the image like imread with the given Imgcodecs.IMREAD_ flags, the Mat is empty if it can't be decoded
+     */
+    Mat decode(int flags) {
+        OpenCv.load();
+        MatOfByte buffer = new MatOfByte(bytes);
+        try {
+            return Imgcodecs.imdecode(buffer, flags);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * The coefficients of a baseline JPEG file, null for other files
+     */
+    JpegBlocks blocks() {
+        return JpegBlocks.read(bytes);
+    }
+
+    /**
+     * The 1/8 grayscale proxy decoded without OpenCV: the block means of a baseline JPEG file (see JpegBlocks) or
+     * the area average of the image decoded by ImageIO
+     */
+    GrayImage proxy() throws IOException {
+        JpegBlocks blocks = blocks();
+        return blocks != null ? blocks.dc : StripReader.readProxy(bytes);
+    }
+
+    long size() {
+        return bytes.length;
+    }
+}
@@ -0,0 +1,208 @@
+package focusstacking;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On disk cache of the low resolution proxies and the focus maps of input images
+ * An entry is keyed by the path, size and modification time of the image, the reduction of the proxy, the decoder
+ * which made it (see ProxyDecoder) and, for focus maps, the focus measure and grid. Entries are small binary files (magic, kind, two dimensions, raw data) which are
+ * written and read through memory mapped FileChannels. The least recently used entries are evicted once the cache
+ * grows above its size cap. A corrupt or unreadable entry counts as a miss.
+ */
+public final class FocusCache {
+    private static final int MAGIC = 0x46534331; // FSC1
+    private static final byte PROXY = 1;
+    private static final byte FOCUS_MAP = 2;
+    private static final int HEADER = 4 + 1 + 4 + 4;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * How a proxy is decoded, the decoders give slightly different proxies so neither they nor the focus maps measured
+     * on them are shared between decoders
+     */
+    enum ProxyDecoder {
+        /**
+         * OpenCV's IMREAD_REDUCED_GRAYSCALE_8
+         */
+        OPENCV,
+        /**
+         * The DC means of a baseline JPEG file (see JpegBlocks), OpenCV for any other file
+         */
+        JPEG_DC_OR_OPENCV,
+        /**
+         * The DC means of a baseline JPEG file, the area average of ImageIO for any other file (see EncodedImage.proxy)
+         */
+        JPEG_DC_OR_AREA,
+        /**
+         * The area average of ImageIO read in bands (see StripReader.readProxy)
+         */
+        BANDS
+    }
+
+    /**
+     * @param directory folder of the cache entries, created if needed
+     * @param maxBytes  size cap of all entries together
+     */
+    FocusCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached proxy of the image decoded with the given reduction (e.g. 8) and decoder, null on a miss
+     */
+    GrayImage loadProxy(File image, int reduction, ProxyDecoder decoder) {
+        ByteBuffer data = read(entry(PROXY, image, reduction + "|" + decoder));
+        if (data == null) return null;
+        int rows = data.getInt(5);
+        int cols = data.getInt(9);
+        if (data.capacity() != HEADER + rows * cols) return null;
+        byte[] pixels = new byte[rows * cols];
+        data.position(HEADER);
+        data.get(pixels);
+        return new GrayImage(pixels, rows, cols);
+    }
+
+    void storeProxy(File image, int reduction, ProxyDecoder decoder, GrayImage proxy) {
+        ByteBuffer data = ByteBuffer.allocate(HEADER + proxy.pixels.length);
+        header(data, PROXY, proxy.rows, proxy.cols);
+        data.put(proxy.pixels);
+        write(entry(PROXY, image, reduction + "|" + decoder), data);
+    }
+
+    /**
+     * @return the cached focus map (r * nCols + c) of the image, measured on the proxy of the given decoder, null on a
+     * miss
+     */
+    double[] loadFocusMap(File image, int reduction, ProxyDecoder decoder, FocusMeasure measure, int nRows, int nCols) {
+        ByteBuffer data = read(entry(FOCUS_MAP, image, reduction + "|" + decoder + "|" + measure + "|" + nRows + "x" + nCols));
+        if (data == null) return null;
+        if (data.getInt(5) != nRows || data.getInt(9) != nCols || data.capacity() != HEADER + 8 * nRows * nCols) {
+            return null;
+        }
+        double[] map = new double[nRows * nCols];
+        data.position(HEADER);
+        data.asDoubleBuffer().get(map);
+        return map;
+    }
+
+    void storeFocusMap(File image, int reduction, ProxyDecoder decoder, FocusMeasure measure, int nRows, int nCols,
+                       double[] map) {
+        ByteBuffer data = ByteBuffer.allocate(HEADER + 8 * map.length);
+        header(data, FOCUS_MAP, nRows, nCols);
+        data.asDoubleBuffer().put(map);
+        write(entry(FOCUS_MAP, image, reduction + "|" + decoder + "|" + measure + "|" + nRows + "x" + nCols), data);
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits into its size cap
+     */
+    synchronized void evict() {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.toString().endsWith(".fsc")).forEach(entries::add);
+        } catch (IOException e) {
+            return;
+        }
+        long[] sizes = new long[entries.size()];
+        long[] used = new long[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        long total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            order[i] = i;
+            try {
+                sizes[i] = Files.size(entries.get(i));
+                used[i] = Files.getLastModifiedTime(entries.get(i)).toMillis();
+            } catch (IOException e) {
+                sizes[i] = 0;
+            }
+            total += sizes[i];
+        }
+        java.util.Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            try {
+                Files.deleteIfExists(entries.get(order[i]));
+                total -= sizes[order[i]];
+            } catch (IOException e) {
+                // in use or already gone, try the next one
+            }
+        }
+    }
+
+    private static void header(ByteBuffer data, byte kind, int rows, int cols) {
+        data.putInt(MAGIC).put(kind).putInt(rows).putInt(cols);
+    }
+
+    private ByteBuffer read(Path entry) {
+        if (entry == null) return null;
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) return null;
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt(0) != MAGIC) return null;
+            // the modification time of an entry is its last use for the eviction
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return data;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.out.println("ignoring unreadable cache entry " + entry + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a temporary file first and moves it in place, so a reader never sees half an entry
+     */
+    private void write(Path entry, ByteBuffer data) {
+        if (entry == null) return;
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer target = channel.map(FileChannel.MapMode.READ_WRITE, 0, data.capacity());
+                data.rewind();
+                target.put(data);
+                target.force();
+            }
+            Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("couldn't write cache entry " + entry + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the path of the entry, null if the image doesn't exist
+     */
+    private Path entry(byte kind, File image, String variant) {
+        if (!image.isFile()) return null;
+        String key = kind + "|" + image.getAbsolutePath() + "|" + image.length() + "|" + image.lastModified() + "|" + variant;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", hash[i]));
+            }
+            return directory.resolve(name.append(".fsc").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package focusstacking;
+
+/**
+ * Summed area table of the per pixel response of a FocusMeasure over a GrayImage, or of the AC energy of the blocks
+ * of a JPEG file for DCT_AC
+ * Once built, the focus measure of any rectangle is read with four lookups (eight for VARIANCE_OF_LAPLACIAN), so
+ * several grid resolutions or non uniform cells can be evaluated on the same image at almost no extra cost
+ * A rectangle only sums the pixels the measure itself evaluates (those whose neighbours are inside the rectangle)
+ * and the sums are exact integers, so the results are identical to FocusMeasure.measure (JpegBlocks.measure for DCT_AC)
+ */
+public final class FocusIntegral {
+    private final FocusMeasure measure;
+    private final int width;
+    private final long[] sum;
+    private final long[] sumOfSquares;
+
+    private FocusIntegral(FocusMeasure measure, int width, long[] sum, long[] sumOfSquares) {
+        this.measure = measure;
+        this.width = width;
+        this.sum = sum;
+        this.sumOfSquares = sumOfSquares;
+    }
+
+    /**
+     * Builds the table(s) for the given measure in one pass over the image
+     */
+    static FocusIntegral of(GrayImage image, FocusMeasure measure) {
+        if (measure == FocusMeasure.DCT_AC) {
+            throw new IllegalArgumentException("DCT_AC is measured on the coefficients of the blocks, see of(JpegBlocks)");
+        }
+        int width = image.cols + 1;
+        long[] sum = new long[(image.rows + 1) * width];
+        long[] sumOfSquares = measure == FocusMeasure.VARIANCE_OF_LAPLACIAN ? new long[sum.length] : null;
+        byte[] pixels = image.pixels;
+        int stride = image.cols;
+        for (int r = 0; r < image.rows; r++) {
+            long rowSum = 0;
+            long rowSumOfSquares = 0;
+            boolean innerRow = r > 0 && r < image.rows - 1;
+            for (int c = 0; c < image.cols; c++) {
+                int i = r * stride + c;
+                long response = 0;
+                if (c > 0 && c < image.cols - 1) {
+                    switch (measure) {
+                        case CHOI:
+                            response = Math.abs(FocusMeasure.secondDerivativeX(pixels, i));
+                            break;
+                        case IMPROVED:
+                            if (innerRow) response = Math.abs(FocusMeasure.secondDerivativeX(pixels, i))
+                                    + Math.abs(FocusMeasure.secondDerivativeY(pixels, i, stride));
+                            break;
+                        case TENENGRAD:
+                            if (innerRow) response = FocusMeasure.sobelSquared(pixels, i, stride);
+                            break;
+                        case VARIANCE_OF_LAPLACIAN:
+                            if (innerRow) response = FocusMeasure.laplacian(pixels, i, stride);
+                            rowSumOfSquares += response * response;
+                            break;
+                    }
+                }
+                rowSum += response;
+                int t = (r + 1) * width + c + 1;
+                sum[t] = sum[t - width] + rowSum;
+                if (sumOfSquares != null) sumOfSquares[t] = sumOfSquares[t - width] + rowSumOfSquares;
+            }
+        }
+        return new FocusIntegral(measure, width, sum, sumOfSquares);
+    }
+
+    /**
+     * Builds the table of the AC energy of every block, a block is a pixel of the proxy (see JpegBlocks)
+     */
+    static FocusIntegral of(JpegBlocks blocks) {
+        int cols = blocks.dc.cols;
+        int width = cols + 1;
+        long[] sum = new long[(blocks.dc.rows + 1) * width];
+        for (int r = 0; r < blocks.dc.rows; r++) {
+            long rowSum = 0;
+            for (int c = 0; c < cols; c++) {
+                rowSum += blocks.acEnergy[r * cols + c];
+                int t = (r + 1) * width + c + 1;
+                sum[t] = sum[t - width] + rowSum;
+            }
+        }
+        return new FocusIntegral(FocusMeasure.DCT_AC, width, sum, null);
+    }
+
+    FocusMeasure measure() {
+        return measure;
+    }
+
+    /**
+     * Focus measure of the rows x cols rectangle whose upper left corner is (rowStart, colStart)
+     */
+    double measure(int rowStart, int colStart, int rows, int cols) {
+        if (measure == FocusMeasure.DCT_AC) {
+            // every block of the rectangle counts
+            return (double) rectangle(sum, rowStart, colStart, rowStart + rows, colStart + cols) / cols * rows;
+        }
+        int top = measure == FocusMeasure.CHOI ? rowStart : rowStart + 1;
+        int bottom = measure == FocusMeasure.CHOI ? rowStart + rows : rowStart + rows - 1;
+        int left = colStart + 1;
+        int right = colStart + cols - 1;
+        if (measure == FocusMeasure.VARIANCE_OF_LAPLACIAN) {
+            if (rows < 3 || cols < 3) return 0;
+            double n = (double) (rows - 2) * (cols - 2);
+            double mean = rectangle(sum, top, left, bottom, right) / n;
+            return rectangle(sumOfSquares, top, left, bottom, right) / n - mean * mean;
+        }
+        return (double) rectangle(sum, top, left, bottom, right) / cols * rows;
+    }
+
+    /**
+     * Sum over the pixels [top, bottom) x [left, right)
+     */
+    private long rectangle(long[] table, int top, int left, int bottom, int right) {
+        if (bottom <= top || right <= left) return 0;
+        return table[bottom * width + right] - table[top * width + right]
+                - table[bottom * width + left] + table[top * width + left];
+    }
+}
@@ -0,0 +1,116 @@
+package focusstacking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Focus maps of the images of a stack, one flat map (one value per cell) per image id (position in the stack)
+ * A View is a subset of the images which only refers to their maps, so choosing the sharpest image per cell among the
+ * selected images is a pass over numbers which are already there. Positions in a view map back to image ids with
+ * imageId.
+ */
+public final class FocusMapStore {
+    private final int cells;
+    private final List<double[]> maps = new ArrayList<>();
+
+    FocusMapStore(int cells) {
+        this.cells = cells;
+    }
+
+    /**
+     * Adds the map of the next image, its id is the number of images before it
+     */
+    void add(double[] map) {
+        if (map.length != cells) {
+            throw new IllegalArgumentException("Expected a map of " + cells + " cells but got " + map.length);
+        }
+        maps.add(map);
+    }
+
+    double[] map(int image) {
+        return maps.get(image);
+    }
+
+    /**
+     * Number of images
+     */
+    int images() {
+        return maps.size();
+    }
+
+    /**
+     * All images in stack order
+     */
+    View all() {
+        int[] ids = new int[maps.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        return new View(ids);
+    }
+
+    /**
+     * The given images in the given order
+     */
+    View subset(List<Integer> images) {
+        int[] ids = new int[images.size()];
+        for (int k = 0; k < ids.length; k++) {
+            ids[k] = images.get(k);
+        }
+        return new View(ids);
+    }
+
+    final class View {
+        private final int[] ids;
+        private final double[][] viewMaps;
+
+        private View(int[] ids) {
+            this.ids = ids;
+            this.viewMaps = new double[ids.length][];
+            for (int k = 0; k < ids.length; k++) {
+                viewMaps[k] = maps.get(ids[k]);
+            }
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Id of the image at the given position of the view
+         */
+        int imageId(int position) {
+            return ids[position];
+        }
+
+        /**
+         * Writes the position of the sharpest image of the cell to selection[cell] and its focus to focus[cell]
+         * Ties keep the first image and a cell without any focus above 0 selects position 0
+         */
+        void select(int cell, int[] selection, double[] focus) {
+            int sharpest = 0;
+            double best = 0;
+            for (int k = 0; k < viewMaps.length; k++) {
+                if (best < viewMaps[k][cell]) {
+                    best = viewMaps[k][cell];
+                    sharpest = k;
+                }
+            }
+            selection[cell] = sharpest;
+            focus[cell] = best;
+        }
+
+        /**
+         * select for every cell in [from, to), across cells on SIMD lanes when the Vector API is available (see Simd)
+         */
+        void select(int from, int to, int[] selection, double[] focus) {
+            if (Simd.select()) {
+                VectorKernels.select(viewMaps, from, to, selection, focus);
+                return;
+            }
+            for (int cell = from; cell < to; cell++) {
+                select(cell, selection, focus);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package focusstacking;
+
+/**
+ * Focus measures evaluated on a tile of a GrayImage.
+ * The tile is addressed inside the image buffer, so measuring a tile neither copies nor allocates anything.
+ * All measures except VARIANCE_OF_LAPLACIAN use the normalisation of the original implementation
+ * (sum / cols * rows) so thresholds tuned for one of them stay in the same range.
+ */
+public enum FocusMeasure {
+    /**
+     * Focus measure for a matrix as descriebed in
+     * D. Choi et al., Improved Image Selection for Focus Stacking (equation 1)
+     */
+    CHOI {
+        @Override
+        double measure(GrayImage image, int rowStart, int colStart, int rows, int cols) {
+            byte[] pixels = image.pixels;
+            long focusMeasure = 0;
+            for (int r = rowStart; r < rowStart + rows; r++) {
+                int i = r * image.cols + colStart;
+                for (int c = 1; c < cols - 1; c++) {
+                    focusMeasure += Math.abs(secondDerivativeX(pixels, i + c));
+                }
+            }
+            return (double) focusMeasure / cols * rows;
+        }
+    },
+
+    /**
+     * As CHOI but instead of just looking at the horizontal neighbors also consider the vertical neighbors
+     * The focusMeasure described  by David Choi can lead to wo bad measure for areas with objects with horizontal edges
+     * Runs on SIMD lanes when the Vector API is available and the CPU has vectors of 256 bits or more (see Simd)
+     */
+    IMPROVED {
+        @Override
+        double measure(GrayImage image, int rowStart, int colStart, int rows, int cols) {
+            if (Simd.improved()) {
+                return (double) VectorKernels.improved(image.pixels, image.cols, rowStart, colStart, rows, cols) / cols * rows;
+            }
+            byte[] pixels = image.pixels;
+            int stride = image.cols;
+            long focusMeasure = 0;
+            for (int r = rowStart + 1; r < rowStart + rows - 1; r++) {
+                int i = r * stride + colStart;
+                for (int c = 1; c < cols - 1; c++) {
+                    focusMeasure += Math.abs(secondDerivativeX(pixels, i + c))
+                            + Math.abs(secondDerivativeY(pixels, i + c, stride));
+                }
+            }
+            return (double) focusMeasure / cols * rows;
+        }
+    },
+
+    /**
+     * Tenengrad, the sum of the squared 3x3 Sobel gradient magnitudes
+     */
+    TENENGRAD {
+        @Override
+        double measure(GrayImage image, int rowStart, int colStart, int rows, int cols) {
+            byte[] pixels = image.pixels;
+            int stride = image.cols;
+            long focusMeasure = 0;
+            for (int r = rowStart + 1; r < rowStart + rows - 1; r++) {
+                int i = r * stride + colStart;
+                for (int c = 1; c < cols - 1; c++) {
+                    focusMeasure += sobelSquared(pixels, i + c, stride);
+                }
+            }
+            return (double) focusMeasure / cols * rows;
+        }
+    },
+
+    /**
+     * Variance of the 4-neighbour Laplacian over the tile, computed in a single pass
+     */
+    VARIANCE_OF_LAPLACIAN {
+        @Override
+        double measure(GrayImage image, int rowStart, int colStart, int rows, int cols) {
+            if (rows < 3 || cols < 3) return 0;
+            byte[] pixels = image.pixels;
+            int stride = image.cols;
+            long sum = 0;
+            long sumOfSquares = 0;
+            for (int r = rowStart + 1; r < rowStart + rows - 1; r++) {
+                int i = r * stride + colStart;
+                for (int c = 1; c < cols - 1; c++) {
+                    int laplacian = laplacian(pixels, i + c, stride);
+                    sum += laplacian;
+                    sumOfSquares += (long) laplacian * laplacian;
+                }
+            }
+            double n = (double) (rows - 2) * (cols - 2);
+            double mean = sum / n;
+            return sumOfSquares / n - mean * mean;
+        }
+    },
+
+    /**
+     * AC energy of the 8x8 blocks of JPEG files, read from their coefficients without decoding them (see JpegBlocks)
+     * GeneralizedFocus.fill() measures JPEG files this way, on pixels (images in memory, other files) it is IMPROVED
+     * Its values are in another range than the pixel measures, so the thresholds have to be tuned for it
+     */
+    DCT_AC {
+        @Override
+        double measure(GrayImage image, int rowStart, int colStart, int rows, int cols) {
+            return IMPROVED.measure(image, rowStart, colStart, rows, cols);
+        }
+    };
+
+    /**
+     * Measures the tile of rows x cols pixels whose upper left corner is (rowStart, colStart)
+     */
+    abstract double measure(GrayImage image, int rowStart, int colStart, int rows, int cols);
+
+    static int secondDerivativeX(byte[] pixels, int i) {
+        return -(pixels[i - 1] & 0xFF) + 2 * (pixels[i] & 0xFF) - (pixels[i + 1] & 0xFF);
+    }
+
+    static int secondDerivativeY(byte[] pixels, int i, int stride) {
+        return -(pixels[i - stride] & 0xFF) + 2 * (pixels[i] & 0xFF) - (pixels[i + stride] & 0xFF);
+    }
+
+    static int laplacian(byte[] pixels, int i, int stride) {
+        return (pixels[i - 1] & 0xFF) + (pixels[i + 1] & 0xFF)
+                + (pixels[i - stride] & 0xFF) + (pixels[i + stride] & 0xFF)
+                - 4 * (pixels[i] & 0xFF);
+    }
+
+    static long sobelSquared(byte[] pixels, int i, int stride) {
+        int upLeft = pixels[i - stride - 1] & 0xFF;
+        int up = pixels[i - stride] & 0xFF;
+        int upRight = pixels[i - stride + 1] & 0xFF;
+        int left = pixels[i - 1] & 0xFF;
+        int right = pixels[i + 1] & 0xFF;
+        int downLeft = pixels[i + stride - 1] & 0xFF;
+        int down = pixels[i + stride] & 0xFF;
+        int downRight = pixels[i + stride + 1] & 0xFF;
+        long gx = (upRight + 2 * right + downRight) - (upLeft + 2 * left + downLeft);
+        long gy = (downLeft + 2 * down + downRight) - (upLeft + 2 * up + upRight);
+        return gx * gx + gy * gy;
+    }
+}
@@ -0,0 +1,301 @@
+package focusstacking;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static javax.swing.text.StyleConstants.Size;
+
+public class FocusStacking {
+    /**
+     * List of images to merge together
+     */
+    private ArrayList<Mat> inputs = new ArrayList<Mat>();
+
+    /**
+     * Path to the folder which contains the images
+     */
+    private String inputPath;
+    private String outputPath;
+
+    /**
+     * Running maximum of the laplacians, the composite built so far and the scratch mask used to merge a new image
+     */
+    private Mat sharpest;
+    private Mat composite;
+    private final Mat sharper = new Mat();
+    /**
+     * Laplacian pyramid fusion used instead of the per pixel selection when pyramidLevels is above 0
+     */
+    private PyramidFusion pyramid;
+    private int pyramidLevels;
+    private int pyramidTileSize = 1024;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private MatPool pool = new MatPool(0);
+
+    public FocusStacking(String inputPath, String outputPath) {
+        this.inputPath = inputPath.replace("\\", "/");
+        this.outputPath = outputPath.replace("\\", "/");
+    }
+
+    public FocusStacking(String inputPath, String outputPath, int lapSize) {
+        this.inputPath = inputPath.replace("\\", "/");
+        this.outputPath = outputPath.replace("\\", "/");
+    }
+
+    /**
+     * Fuses the images with Laplacian pyramids of the given number of levels instead of copying every pixel from the
+     * sharpest image, 0 (default) keeps the per pixel selection
+     * The image is fused in tiles of tileSize pixels (plus an overlap), so the temporary memory doesn't grow with the
+     * size of the frames
+     */
+    void setPyramidFusion(int levels, int tileSize) {
+        this.pyramidLevels = levels;
+        this.pyramidTileSize = tileSize;
+    }
+
+    /**
+     * Number of tiles fused at the same time by the pyramid fusion
+     */
+    void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Pool the per image buffers (grayscale, blur, laplacians, composite) are taken from, shared across scenes
+     */
+    void setMatPool(MatPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Compute the gradient map of the image
+     *
+     * @param image image to transform
+     * @return image image transformed, taken from the pool (give it back with the pool's release)
+     */
+    public Mat laplacien(Mat image) {
+        int kernel_size = 5;
+        double blur_size = 5;
+
+        Mat gray = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+
+        Mat gauss = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+        Imgproc.GaussianBlur(gray, gauss, new Size(blur_size, blur_size), 0);
+
+        Mat laplace = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+        Imgproc.Laplacian(gauss, laplace, gauss.type(), kernel_size, 1, 0);
+
+        Mat absolute = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+        Core.convertScaleAbs(laplace, absolute);
+
+        pool.release(gray);
+        pool.release(gauss);
+        pool.release(laplace);
+
+        return absolute;
+    }
+
+    /**
+     * apply focus stacking on inputs
+     */
+    void focusStack() {
+        if (inputs.size() == 0) {
+            System.out.println("please select some inputs");
+        } else {
+            System.out.println("Computing the laplacian of the blurred images");
+            Mat vide = stack(inputs);
+            System.out.println("Success!");
+
+            Imgcodecs.imwrite(outputPath + "(FocusStacking).jpg", vide);
+            pool.release(vide);
+        }
+    }
+
+    /**
+     * Stacks the given images and returns the composite, which is owned by the caller
+     */
+    Mat stack(List<Mat> images) {
+        reset();
+        for (Mat image : images) {
+            fold(image);
+        }
+        Mat result = pyramid != null ? pyramid.result() : composite;
+        composite = null;
+        reset();
+        return result;
+    }
+
+    /**
+     * apply focus stacking directly on the files in the inputPath without filling the inputs list
+     * Every image is folded into the composite and released while the next one is decoded, so the memory used stays at
+     * about four images (composite, current and next image and the laplacians) regardless of the size of the stack
+     */
+    void focusStackStreaming() {
+        File directory = new File(inputPath);
+        File[] files = directory.listFiles();
+        if (files == null || files.length == 0) {
+            System.out.println("directory : " + inputPath + " doesn't exist or is empty");
+            return;
+        }
+        reset();
+        try (Prefetcher<Mat> decoder = new Prefetcher<>(files, 1, 1, file -> Imgcodecs.imread(inputPath + file.getName()))) {
+            for (File file : files) {
+                Mat image = decoder.next();
+                if (image.empty()) {
+                    System.out.println("skipping " + file.getName() + " (not an image)");
+                    continue;
+                }
+                System.out.println("image " + file.getName());
+                fold(image);
+                image.release();
+            }
+        } catch (IOException e) {
+            System.out.println("can't read " + inputPath + " : " + e.getMessage());
+            reset();
+            return;
+        }
+        Mat result = pyramid != null ? pyramid.result() : composite;
+        if (result == null) {
+            System.out.println("please select some inputs");
+        } else {
+            System.out.println("Success!");
+            Imgcodecs.imwrite(outputPath + "(FocusStacking).jpg", result);
+            if (result != composite) pool.release(result);
+        }
+        reset();
+    }
+
+    /**
+     * Out of core version of focusStackStreaming for images too big to be decoded at once: the images are read in
+     * horizontal bands of bandRows rows plus a halo for the blur and laplacian kernels (or the pyramid filters), every
+     * band is fused over the whole stack and appended to (FocusStacking).ppm
+     * The memory used scales with bandRows and not with the size of the images. Every image is decoded once, a JPEG
+     * into a temporary file of raw rows (see StripReader.Bands), so the disk needs 3 bytes per pixel and image meanwhile
+     */
+    void focusStackInBands(int bandRows) {
+        File[] files = new File(inputPath).listFiles(File::isFile);
+        if (files == null || files.length == 0) {
+            System.out.println("directory : " + inputPath + " doesn't exist or is empty");
+            return;
+        }
+        List<File> images = new ArrayList<>();
+        int[] size = null;
+        for (File file : files) {
+            try {
+                int[] imageSize = StripReader.size(file);
+                if (size == null) size = imageSize;
+                images.add(file);
+            } catch (IOException e) {
+                System.out.println("skipping " + file.getName() + " (not an image)");
+            }
+        }
+        if (size == null) {
+            System.out.println("please select some inputs");
+            return;
+        }
+        // 2 rows for the 5x5 blur and 2 for the laplacian of size 5
+        int halo = pyramidLevels > 0 ? 4 << pyramidLevels : 4;
+        List<StripReader.Bands> sources = new ArrayList<>();
+        try (PpmWriter writer = new PpmWriter(Paths.get(outputPath + "(FocusStacking).ppm"), size[0], size[1])) {
+            for (File file : images) {
+                sources.add(StripReader.open(file));
+            }
+            for (int y = 0; y < size[1]; y += bandRows) {
+                int rows = Math.min(bandRows, size[1] - y);
+                int top = Math.max(0, y - halo);
+                int bottom = Math.min(size[1], y + rows + halo);
+                reset();
+                for (StripReader.Bands source : sources) {
+                    Mat band = source.read(top, bottom - top);
+                    fold(band);
+                    band.release();
+                }
+                Mat fused = pyramid != null ? pyramid.result() : composite;
+                Mat inner = fused.submat(y - top, y - top + rows, 0, size[0]);
+                writer.write(inner);
+                inner.release();
+                if (fused != composite) pool.release(fused);
+            }
+            System.out.println("Success!");
+        } catch (IOException e) {
+            System.out.println("couldn't stack " + inputPath + " in bands : " + e.getMessage());
+        } finally {
+            StripReader.close(sources);
+        }
+        reset();
+    }
+
+    /**
+     * Folds one image into the running maximum of the laplacians and the composite
+     * The pixels of the image are copied wherever it is strictly sharper than all previous images, so ties keep the
+     * first image. The per pixel work is done by OpenCV through compare/copyTo masks
+     * With pyramid fusion the image is added to the fused pyramids instead
+     */
+    private void fold(Mat image) {
+        if (pyramid != null) {
+            pyramid.add(image);
+            return;
+        }
+        Mat lap = laplacien(image);
+        if (composite == null) {
+            sharpest = lap;
+            composite = pool.acquire(image.rows(), image.cols(), image.type());
+            image.copyTo(composite);
+            return;
+        }
+        Core.compare(lap, sharpest, sharper, Core.CMP_GT);
+        image.copyTo(composite, sharper);
+        lap.copyTo(sharpest, sharper);
+        pool.release(lap);
+    }
+
+    /**
+     * Releases the running maximum and composite (or fused pyramids) of a previous stack
+     */
+    private void reset() {
+        pool.release(sharpest);
+        pool.release(composite);
+        if (pyramid != null) pyramid.release();
+        sharpest = null;
+        composite = null;
+        pyramid = pyramidLevels > 0 ? new PyramidFusion(parallelism, pyramidLevels, pyramidTileSize) : null;
+    }
+
+
+    /**
+     * Fill inputs list using the inputPath
+     * The files are decoded in parallel (see Prefetcher), every file only once
+     */
+    public void fill() {
+        File[] files = new File(inputPath).listFiles(File::isFile);
+        if (files == null) {
+            System.out.println("directory : " + inputPath + " doesn't exist");
+            return;
+        }
+        try (Prefetcher<Mat> decoder = new Prefetcher<>(files, parallelism, parallelism,
+                file -> Imgcodecs.imread(inputPath + file.getName()))) {
+            for (File file : files) {
+                Mat image = decoder.next();
+                if (image.empty()) {
+                    System.out.println("skipping " + file.getName() + " (not an image)");
+                    continue;
+                }
+                System.out.println(image.size());
+                inputs.add(image);
+            }
+        } catch (IOException e) {
+            System.out.println("can't read " + inputPath + " : " + e.getMessage());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,1224 @@
+package focusstacking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.*;
+
+public class GeneralizedFocus {
+    /**
+     * List of images to merge together
+     */
+    private ArrayList<Mat> inputs = new ArrayList<>();
+    private ArrayList<GrayImage> lowRes = new ArrayList<>();
+    private ArrayList<String> fileNames = new ArrayList<>();
+    private ArrayList<Mat> frames;
+    private int numberOfInputs;
+    /**
+     * Focus measure per image and cell, every map is flat with the cell r * nCols + c at index r * nCols + c
+     */
+    private FocusMapStore focusMeasureMaps;
+    /**
+     * The images the focusSelectionMap chooses from, its positions map back to image ids
+     */
+    private FocusMapStore.View selection;
+    private ArrayList<CellSet> coveringSet = new ArrayList<>();
+    private List<Integer> selectedImages = new ArrayList<>();
+    private int nRows;
+    private int nCols;
+    private int[] focusSelectionMap;
+    private double[] focusSelectionMem;
+    private Mat output;
+    private double thrashHold;
+    private double thrashHold2;
+    private FocusMeasure focusMeasure = FocusMeasure.IMPROVED;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean integralImages;
+    private int featherWidth;
+    private ArrayList<FocusIntegral> integrals;
+    private FocusCache cache;
+    private MatPool pool = new MatPool(0);
+    private int quadtreeMinCellSize;
+    private boolean pureJavaSelection;
+    /**
+     * Variable size cells the maps refer to after refine, null while the maps are on the uniform grid
+     */
+    private QuadtreeGrid grid;
+    /**
+     * Full resolution images decoded for previews while they are selected, reused by decodeSelectedImages
+     */
+    private final Map<Integer, Mat> previewFrames = new HashMap<>();
+    /**
+     * Files read by fill() and addFrame, kept encoded so the selected images are decoded without reading them again
+     * Only the selected files are kept once the selection is known and none once they are decoded, an image whose bytes
+     * aren't kept is read from its file again
+     */
+    private final Map<Integer, EncodedImage> encoded = new HashMap<>();
+    /**
+     * Focus maps fill() measured (or found in the cache) while the next files were decoded, used once by
+     * setFocusMeasureMapAndMem, which only stores those which didn't come from the cache
+     */
+    private List<double[]> prefetchedMaps;
+    private List<Boolean> prefetchedFromCache;
+    private FocusMeasure prefetchedMeasure;
+    /**
+     * fill() read every file as a baseline JPEG with FocusMeasure.DCT_AC, see measureFor
+     */
+    private boolean dctStack;
+    /**
+     * How the proxies of the files were decoded, part of the cache keys, null for frames in memory
+     */
+    private FocusCache.ProxyDecoder proxyDecoder;
+    private final PrettyPrinter printer = new PrettyPrinter(System.out);
+    private final RunMetrics metrics;
+
+    /**
+     * Path to the folder which contains the images
+     */
+    private String inputPath;
+    private String outputPath;
+
+
+    GeneralizedFocus(String inputPath, String outputPath, int nRows, int nCols, double backgroundThrashHold, double setCoverThrashHold) {
+        this.nRows = nRows;
+        this.nCols = nCols;
+        this.inputPath = inputPath.replace("\\", "/");
+        this.outputPath = outputPath.replace("\\", "/");
+        this.thrashHold = backgroundThrashHold;
+        this.thrashHold2 = setCoverThrashHold;
+        this.focusMeasureMaps = new FocusMapStore(nRows * nCols);
+        this.metrics = new RunMetrics(this.outputPath);
+    }
+
+    /**
+     * Selects the focus measure used for the focus maps (FocusMeasure.IMPROVED by default)
+     */
+    void setFocusMeasure(FocusMeasure focusMeasure) {
+        this.focusMeasure = focusMeasure;
+    }
+
+    /**
+     * Number of threads used for the focus maps, 1 runs everything on the calling thread
+     */
+    void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * When enabled the focus maps are read from per image integral images which are computed once, so every further
+     * grid evaluated on the same images costs four lookups per cell instead of a pass over the pixels
+     * (uses 8 bytes per low resolution pixel and image)
+     */
+    void setIntegralImages(boolean integralImages) {
+        this.integralImages = integralImages;
+    }
+
+    /**
+     * Half width in pixels of the linear blend across seams between cells from different images, 0 (default) keeps
+     * the hard cell borders
+     */
+    void setFeatherWidth(int featherWidth) {
+        this.featherWidth = featherWidth;
+    }
+
+    /**
+     * Enables the adaptive grid: the foreground cells of the uniform grid are split into quadrants recursively as long
+     * as a quadrant isn't homogeneous and its halves are at least minCellSize low resolution pixels, everything after
+     * the focus maps then works on these variable size cells (0, the default, keeps the uniform grid)
+     * The quadrants are measured with integral images, which are built for this even if setIntegralImages is off
+     */
+    void setQuadtree(int minCellSize) {
+        this.quadtreeMinCellSize = minCellSize;
+    }
+
+    /**
+     * Pool the output and the scratch Mats of the proxies are taken from, shared by the scenes of a batch (by default
+     * nothing is pooled and every Mat is released as soon as it isn't needed any more)
+     */
+    void setMatPool(MatPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Keeps the low resolution proxies and focus maps of images read by fill() in the given cache, so later runs over
+     * the same files skip decoding and measuring them (null, the default, disables caching)
+     */
+    void setCache(FocusCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Decodes the proxies in fill() without OpenCV: from the DC coefficients of baseline JPEG files (see JpegBlocks)
+     * or with ImageIO, so the whole selection runs on heap arrays and OpenCV is only loaded (see OpenCv) once the
+     * selected images are decoded for the composition (off by default, the proxies are then decoded by OpenCV)
+     */
+    void setPureJavaSelection(boolean pureJavaSelection) {
+        this.pureJavaSelection = pureJavaSelection;
+    }
+
+    /**
+     * apply generalFocus on inputs
+     */
+    void generalFocus() {
+        selectImages();
+        decodeSelectedImages();
+        metrics.run("focusMaps", () -> selectAmong(selectedImages));
+        compose();
+        metrics.run("encode", () -> Imgcodecs.imwrite(outputPath + "(generalized).jpg", output));
+        releaseImages();
+        metrics.writeJson(outputPath + "(metrics).json");
+    }
+
+    /**
+     * Computes the focus maps of all low resolution images and reduces the stack to the images which are needed to
+     * cover every foreground cell (selectedImages)
+     */
+    void selectImages() {
+        selectedImages = new ArrayList<>();
+        for (int i = 0; i < lowRes.size(); i++) {
+            selectedImages.add(i);
+        }
+        metrics.run("focusMaps", () -> setFocusMeasureMapAndMem(selectedImages, focusMeasure));
+        if (quadtreeMinCellSize > 0) {
+            metrics.run("quadtree", () ->
+                    refine(determineBackgroundAndHomogeneousCells(thrashHold, focusSelectionMap.clone()), focusMeasure));
+        }
+
+        CellSet foreGround = setCover();
+        System.out.printf("Images contains %d out of %d foreGround cells " +
+                "\n(change the thresholds to get different results)\n" ,foreGround.size(), cells());
+
+        System.out.print("Images from stack used ");
+        selectedImages.forEach(e -> System.out.printf("%d ", e));
+
+
+//        for (int i = 0; i < coveringSet.size(); i++) {
+//            System.out.printf("%d", i);
+//            printer.print(coveringSet.get(i));
+//        }
+
+        if (selectedImages.isEmpty()) {
+            // no foreground cell at all, every image is as good as the reference image of the alignment
+            selectedImages.add(0);
+        }
+        encoded.keySet().retainAll(selectedImages);
+    }
+
+    /**
+     * Outcome of one pair of thresholds of a sweep
+     */
+    static final class SweepResult {
+        final double backgroundThrashHold;
+        final double setCoverThrashHold;
+        final List<Integer> selectedImages;
+        final int foreGroundCells;
+
+        SweepResult(double backgroundThrashHold, double setCoverThrashHold, List<Integer> selectedImages, int foreGroundCells) {
+            this.backgroundThrashHold = backgroundThrashHold;
+            this.setCoverThrashHold = setCoverThrashHold;
+            this.selectedImages = selectedImages;
+            this.foreGroundCells = foreGroundCells;
+        }
+    }
+
+    /**
+     * Evaluates every pair of background and set cover thresholds on the focus maps of all images
+     * The focus maps are computed only once (or reused from a previous run), the pairs are evaluated in parallel and
+     * nothing is decoded at full resolution, pick the pairs to compose with generalFocus(SweepResult)
+     *
+     * @return one result per pair, background threshold major
+     */
+    List<SweepResult> sweep(double[] backgroundThrashHolds, double[] setCoverThrashHolds) {
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < lowRes.size(); i++) {
+            all.add(i);
+        }
+        metrics.run("focusMaps", () -> {
+            if (focusMeasureMaps.images() != lowRes.size()) setFocusMeasureMapAndMem(all, focusMeasure);
+            else selectAmong(all);
+        });
+        int[] sharpest = focusSelectionMap.clone();
+        SweepResult[] results = new SweepResult[backgroundThrashHolds.length * setCoverThrashHolds.length];
+        metrics.run("sweep", () -> Parallel.forEach(parallelism, results.length, pair -> {
+            double background = backgroundThrashHolds[pair / setCoverThrashHolds.length];
+            double setCover = setCoverThrashHolds[pair % setCoverThrashHolds.length];
+            ArrayList<CellSet> coveringSets = buildCoveringSets(setCover);
+            CellSet foreGround = determineBackgroundAndHomogeneousCells(background, sharpest.clone());
+            List<Integer> selected = reduceSelectionMap(coveringSets, foreGround);
+            if (selected.isEmpty()) selected.add(0);
+            results[pair] = new SweepResult(background, setCover, selected, foreGround.size());
+        }));
+
+        String[][] table = new String[results.length + 1][];
+        table[0] = new String[]{"pair", "background", "set cover", "foreGround cells", "images used", "images"};
+        for (int pair = 0; pair < results.length; pair++) {
+            SweepResult result = results[pair];
+            table[pair + 1] = new String[]{Integer.toString(pair), Double.toString(result.backgroundThrashHold),
+                    Double.toString(result.setCoverThrashHold), result.foreGroundCells + "/" + cells(),
+                    Integer.toString(result.selectedImages.size()), result.selectedImages.toString()};
+        }
+        printer.print(table);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Composes and writes the output for one result of a sweep, the thresholds are part of the file name
+     */
+    void generalFocus(SweepResult chosen) {
+        selectedImages = new ArrayList<>(chosen.selectedImages);
+        decodeSelectedImages();
+        selectAmong(selectedImages);
+        compose();
+        metrics.run("encode", () -> Imgcodecs.imwrite(outputPath + "(generalized bg " + chosen.backgroundThrashHold
+                + " sc " + chosen.setCoverThrashHold + ").jpg", output));
+        releaseImages();
+    }
+
+    /**
+     * Outcome of one grid of a grid sweep
+     */
+    static final class GridResult {
+        final int nRows;
+        final int nCols;
+        final List<Integer> selectedImages;
+        final int foreGroundCells;
+
+        GridResult(int nRows, int nCols, List<Integer> selectedImages, int foreGroundCells) {
+            this.nRows = nRows;
+            this.nCols = nCols;
+            this.selectedImages = selectedImages;
+            this.foreGroundCells = foreGroundCells;
+        }
+    }
+
+    /**
+     * Changes the grid of a filled stack: the focus maps of the new grid are read from the integral images, which are
+     * built by the first regrid even if setIntegralImages is off and then reused, so every further grid costs four
+     * lookups per cell and image instead of a pass over the pixels. The selection, covering sets and composition that
+     * follow use the new grid.
+     */
+    void regrid(int nRows, int nCols) {
+        this.nRows = nRows;
+        this.nCols = nCols;
+        // the maps fill() measured belong to the previous grid
+        prefetchedMaps = null;
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < lowRes.size(); i++) {
+            all.add(i);
+        }
+        metrics.run("focusMaps", () -> {
+            buildIntegrals(focusMeasure);
+            setFocusMeasureMapAndMem(all, focusMeasure);
+        });
+    }
+
+    /**
+     * Evaluates the thresholds of the engine on every grid (rows, cols) with regrid, so the pixels are only read once
+     * for all grids, nothing is decoded at full resolution. The engine is left on the last grid, regrid to the one to
+     * compose before generalFocus.
+     *
+     * @return one result per grid, in the given order
+     */
+    List<GridResult> gridSweep(int[][] grids) {
+        List<GridResult> results = new ArrayList<>();
+        for (int[] g : grids) {
+            regrid(g[0], g[1]);
+            CellSet foreGround = setCover();
+            List<Integer> selected = new ArrayList<>(selectedImages);
+            if (selected.isEmpty()) selected.add(0);
+            results.add(new GridResult(g[0], g[1], selected, foreGround.size()));
+        }
+
+        String[][] table = new String[results.size() + 1][];
+        table[0] = new String[]{"grid", "foreGround cells", "images used", "images"};
+        for (int k = 0; k < results.size(); k++) {
+            GridResult result = results.get(k);
+            table[k + 1] = new String[]{result.nRows + "x" + result.nCols,
+                    result.foreGroundCells + "/" + result.nRows * result.nCols,
+                    Integer.toString(result.selectedImages.size()), result.selectedImages.toString()};
+        }
+        printer.print(table);
+        return results;
+    }
+
+    /**
+     * Releases the decoded full resolution images (not the frames given by the caller) and gives the output back to
+     * the pool once it is written
+     */
+    private void releaseImages() {
+        if (frames == null) inputs.forEach(Mat::release);
+        inputs = new ArrayList<>();
+        pool.release(output);
+        output = null;
+    }
+
+    /**
+     * Builds the covering sets from the current focus maps, determines the foreground cells and reduces the stack to
+     * the images covering them
+     *
+     * @return the foreground cells
+     */
+    CellSet setCover() {
+        coveringSet = metrics.get("coveringSets", () -> buildCoveringSets(thrashHold2));
+        CellSet foreGround = metrics.get("background", () -> determineBackgroundAndHomogeneousCells(thrashHold, focusSelectionMap));
+        selectedImages = metrics.get("setCover", () -> reduceSelectionMap(coveringSet, foreGround));
+        return foreGround;
+    }
+
+    /**
+     * A cell is covered by an image if its focus measure is within the set cover threshold of the sharpest image
+     */
+    private ArrayList<CellSet> buildCoveringSets(double setCoverThrashHold) {
+        ArrayList<CellSet> coveringSets = new ArrayList<>();
+        for (int i = 0; i < focusMeasureMaps.images(); i++) {
+            double[] focusMeasureMap = focusMeasureMaps.map(i);
+            CellSet covered = new CellSet(cells());
+            for (int cell = 0; cell < focusMeasureMap.length; cell++) {
+                if (Math.abs(focusMeasureMap[cell] - focusSelectionMem[cell]) <= setCoverThrashHold)
+                    covered.add(cell);
+            }
+            coveringSets.add(covered);
+        }
+        return coveringSets;
+    }
+
+    /**
+     * Only now decode the full resolution images, and only the selected ones (in parallel)
+     * inputs.get(k) is the image selectedImages.get(k)
+     */
+    void decodeSelectedImages() {
+        OpenCv.load();
+        inputs = new ArrayList<>();
+        try (RunMetrics.Phase phase = metrics.start("decode")) {
+            Mat[] decoded = new Mat[selectedImages.size()];
+            for (int k = 0; k < decoded.length; k++) {
+                int index = selectedImages.get(k);
+                decoded[k] = frames != null ? frames.get(index) : previewFrames.remove(index);
+            }
+            Parallel.forEach(parallelism, decoded.length, k -> {
+                if (decoded[k] == null) {
+                    decoded[k] = decode(selectedImages.get(k));
+                    phase.addNativeBytes(RunMetrics.bytes(decoded[k]));
+                }
+            });
+            inputs.addAll(Arrays.asList(decoded));
+            previewFrames.values().forEach(Mat::release);
+            previewFrames.clear();
+            encoded.clear();
+        }
+
+        System.out.printf("\nUsed %d images from %d\n", inputs.size(), numberOfInputs);
+    }
+
+    /**
+     * Builds the output from the cells of the images chosen in the focusSelectionMap
+     * Every cell is copied straight into the output (rows of cells in parallel), see TileCompositor
+     * The variable size cells of the adaptive grid are always copied with hard seams
+     */
+    Mat compose() {
+        try (RunMetrics.Phase phase = metrics.start("composition")) {
+            pool.release(output);
+            TileCompositor compositor = new TileCompositor(parallelism, featherWidth, pool);
+            output = grid != null ? compositor.compose(inputs, grid, focusSelectionMap)
+                    : compositor.compose(inputs, nRows, nCols, focusSelectionMap);
+            phase.addNativeBytes(RunMetrics.bytes(output));
+            return output;
+        }
+    }
+
+
+    /**
+     * Sets the cells in the focusSelectionMap map to 0 when a cell is background or homogeneous cell
+     * A cell is considered background or homogeneous cell if the standard deviation of all corresponding cells in the
+     * stack is below a given threshold
+     * if useMostFrequent is set to true the function determines which image is used for most cells and uses this image
+     * also for the background cells to reduce the number of artifacts which can occur when merging different focuses
+     * together
+     * if useMostFrequent is set to false the background cells use image 0 because in the previous alignment process all
+     * the images are aligned to the image 0 there for there wont be any artifacts from merging different images in
+     * the Background and homogeneous areas.
+     */
+    private CellSet determineBackgroundAndHomogeneousCells(double backgroundThrashHold, int[] focusSelectionMap) {
+        CellSet foreGround = new CellSet(cells());
+        double standard;
+        double biggest;
+        int backgroundImage = 0;
+        int[] counts = new int[lowRes.size()];
+        for (int aFocusSelectionMap : focusSelectionMap) {
+            counts[aFocusSelectionMap]++;
+        }
+        int max = 0;
+        for (int i = 0; i != lowRes.size(); i++) {
+            if (counts[i] > max) {
+                max = counts[i];
+                backgroundImage = i;
+            }
+        }
+        for (int cell = 0; cell < cells(); cell++) {
+            standard = 0;
+            biggest = 0;
+            for (int i = 0; i < lowRes.size(); i++) {
+                standard += focusMeasureMaps.map(i)[cell];
+            }
+            standard /= lowRes.size();
+            for (int i = 0; i < lowRes.size(); i++) {
+                if (biggest < Math.abs(focusMeasureMaps.map(i)[cell] - standard)) {
+                    biggest = Math.abs(focusMeasureMaps.map(i)[cell] - standard);
+                }
+            }
+            if (biggest < backgroundThrashHold) {
+                focusSelectionMap[cell] = backgroundImage;
+            } else {
+                foreGround.add(cell);
+            }
+        }
+        return foreGround;
+    }
+
+
+    /**
+     * Fill the lowRes list using the path
+     * Every file is read once: its proxy is decoded from the bytes in memory, which are kept for the full resolution
+     * decode of the selected images later in generalFocus. The files are decoded in parallel and a few files ahead, the
+     * focus map of every proxy is measured right after it is decoded, so decoding overlaps measuring.
+     */
+    void fill() {
+        File[] files = new File(inputPath).listFiles(File::isFile);
+        if (files == null) {
+            System.out.println("directory : " + inputPath + " doesn't exist");
+            return;
+        }
+        FocusMeasure measure = focusMeasure;
+        FocusCache.ProxyDecoder decodedBy = pureJavaSelection ? FocusCache.ProxyDecoder.JPEG_DC_OR_AREA
+                : measure == FocusMeasure.DCT_AC ? FocusCache.ProxyDecoder.JPEG_DC_OR_OPENCV : FocusCache.ProxyDecoder.OPENCV;
+        proxyDecoder = decodedBy;
+        List<double[]> maps = new ArrayList<>();
+        List<Boolean> fromCache = new ArrayList<>();
+        try (RunMetrics.Phase phase = metrics.start("lowResDecode");
+             Prefetcher<Decoded> decoder = new Prefetcher<>(files, parallelism, 2 * parallelism,
+                     file -> decode(file, measure, decodedBy, phase))) {
+            while (decoder.hasNext()) {
+                Decoded decoded;
+                try {
+                    decoded = decoder.next();
+                } catch (IOException e) {
+                    System.out.println("skipping " + e.getMessage());
+                    continue;
+                }
+                if (decoded.encoded != null) encoded.put(lowRes.size(), decoded.encoded);
+                lowRes.add(decoded.proxy);
+                fileNames.add(decoded.name);
+                maps.add(decoded.map);
+                fromCache.add(decoded.mapFromCache);
+            }
+        }
+        numberOfInputs = lowRes.size();
+        prefetchedMaps = maps;
+        prefetchedFromCache = fromCache;
+        prefetchedMeasure = measure;
+        dctStack = measure == FocusMeasure.DCT_AC && !maps.isEmpty() && !maps.contains(null);
+        if (measure == FocusMeasure.DCT_AC && !dctStack) {
+            System.out.println("not every image is a baseline JPEG, DCT_AC is measured on pixels");
+        }
+    }
+
+    /**
+     * The measure the maps are taken with: DCT_AC needs the coefficients of every image, so it is only used for a
+     * stack fill() read from baseline JPEG files, other stacks (and frames) are measured on their pixels with IMPROVED
+     * The cache and the integral images are keyed by this measure, so the pixel maps are never taken for DCT_AC ones
+     */
+    private FocusMeasure measureFor(FocusMeasure measure) {
+        return measure == FocusMeasure.DCT_AC && !dctStack ? FocusMeasure.IMPROVED : measure;
+    }
+
+    /**
+     * The coefficients of image index of a DCT_AC stack, parsed from the bytes fill() kept or from its file
+     */
+    private JpegBlocks blocks(int index) {
+        EncodedImage image = encoded.get(index);
+        try {
+            if (image == null) image = EncodedImage.read(new File(inputPath + fileNames.get(index)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        JpegBlocks blocks = image.blocks();
+        if (blocks == null) throw new IllegalStateException(fileNames.get(index) + " is no longer a baseline JPEG");
+        return blocks;
+    }
+
+    /**
+     * What fill() gets for a file: its proxy, its bytes (null if the proxy came from the cache) and its focus map
+     */
+    private static final class Decoded {
+        final String name;
+        final EncodedImage encoded;
+        final GrayImage proxy;
+        final double[] map;
+        final boolean mapFromCache;
+
+        Decoded(String name, EncodedImage encoded, GrayImage proxy, double[] map, boolean mapFromCache) {
+            this.name = name;
+            this.encoded = encoded;
+            this.proxy = proxy;
+            this.map = map;
+            this.mapFromCache = mapFromCache;
+        }
+    }
+
+    /**
+     * Runs on the threads of the Prefetcher of fill()
+     * With FocusMeasure.DCT_AC a JPEG file isn't decoded at all, its proxy and its map come from its coefficients
+     * (see JpegBlocks), the map of any other file is left to setFocusMeasureMapAndMem
+     */
+    private Decoded decode(File file, FocusMeasure measure, FocusCache.ProxyDecoder decoder, RunMetrics.Phase phase)
+            throws IOException {
+        GrayImage image = cache != null ? cache.loadProxy(file, 8, decoder) : null;
+        if (image != null) {
+            double[] cachedMap = cache.loadFocusMap(file, 8, decoder, measure, nRows, nCols);
+            if (cachedMap != null) {
+                return new Decoded(file.getName(), null, image, cachedMap, true);
+            }
+            if (measure != FocusMeasure.DCT_AC) {
+                return new Decoded(file.getName(), null, image, measureMap(image, measure), false);
+            }
+        }
+        EncodedImage bytes = EncodedImage.read(file);
+        JpegBlocks blocks = measure == FocusMeasure.DCT_AC || pureJavaSelection ? bytes.blocks() : null;
+        if (image == null) {
+            if (blocks != null) {
+                image = blocks.dc;
+            } else if (pureJavaSelection) {
+                try {
+                    image = bytes.proxy();
+                } catch (IOException e) {
+                    throw new IOException(file.getName() + " (not an image)", e);
+                }
+            } else {
+                Mat proxy = bytes.decode(Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8);
+                if (proxy.empty()) {
+                    throw new IOException(file.getName() + " (not an image)");
+                }
+                phase.addNativeBytes(RunMetrics.bytes(proxy));
+                image = GrayImage.of(proxy);
+                proxy.release();
+            }
+            if (cache != null) cache.storeProxy(file, 8, decoder, image);
+        }
+        double[] map = measure != FocusMeasure.DCT_AC ? measureMap(image, measure) : blocks != null ? measureMap(blocks) : null;
+        return new Decoded(file.getName(), bytes, image, map, false);
+    }
+
+    /**
+     * Focus map of one image on the uniform grid, the same values as setFocusMeasureMapAndMem
+     */
+    private double[] measureMap(GrayImage image, FocusMeasure measure) {
+        double[] map = new double[nRows * nCols];
+        int rowDif = image.rows / nRows;
+        int colDif = image.cols / nCols;
+        for (int r = 0; r < nRows; r++) {
+            for (int c = 0; c < nCols; c++) {
+                map[r * nCols + c] = measure.measure(image, r * rowDif, c * colDif, rowDif, colDif);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Focus map of the blocks of a JPEG file, a block is a pixel of the proxy so the cells are the same
+     */
+    private double[] measureMap(JpegBlocks blocks) {
+        double[] map = new double[nRows * nCols];
+        int rowDif = blocks.dc.rows / nRows;
+        int colDif = blocks.dc.cols / nCols;
+        for (int r = 0; r < nRows; r++) {
+            for (int c = 0; c < nCols; c++) {
+                map[r * nCols + c] = blocks.measure(r * rowDif, c * colDif, rowDif, colDif);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Full resolution image of a file, decoded from the bytes which were kept when it was read (the file is only read
+     * again if its proxy came from the cache)
+     */
+    private Mat decode(int index) {
+        EncodedImage image = encoded.get(index);
+        return image != null ? image.decode(Imgcodecs.IMREAD_COLOR) : Imgcodecs.imread(inputPath + fileNames.get(index));
+    }
+
+
+    /**
+     * Out of core version of fill() for images too big to be decoded at once, the proxies are built from bands of
+     * bandRows rows, or 8 rows at a time while a JPEG is decoded once (see StripReader.readProxy)
+     */
+    void fillInBands(int bandRows) {
+        File[] files = new File(inputPath).listFiles(File::isFile);
+        if (files == null) {
+            System.out.println("directory : " + inputPath + " doesn't exist");
+            return;
+        }
+        proxyDecoder = FocusCache.ProxyDecoder.BANDS;
+        metrics.run("lowResDecode", () -> {
+            for (File file : files) {
+                GrayImage image = cache != null ? cache.loadProxy(file, 8, proxyDecoder) : null;
+                try {
+                    if (image == null) {
+                        image = StripReader.readProxy(file, bandRows);
+                        if (cache != null) cache.storeProxy(file, 8, proxyDecoder, image);
+                    }
+                } catch (IOException e) {
+                    System.out.println("skipping " + file.getName() + " : " + e.getMessage());
+                    continue;
+                }
+                lowRes.add(image);
+                fileNames.add(file.getName());
+            }
+        });
+        numberOfInputs = lowRes.size();
+    }
+
+    /**
+     * Out of core version of generalFocus() for images too big to be decoded at once: the output is composed in
+     * horizontal bands of at most bandRows rows (never across a row of cells) and appended to (generalized).ppm
+     * Only the bands of the images chosen for a cell in the band are decoded, so the memory scales with bandRows times
+     * the number of selected images and not with the size of the images. A selected JPEG is decoded once into a
+     * temporary file of raw rows (see StripReader.Bands) which is deleted at the end. The seams are always hard.
+     */
+    void generalFocusInBands(int bandRows) {
+        if (frames != null) {
+            System.out.println("the frames are already in memory, use generalFocus()");
+            return;
+        }
+        selectImages();
+        metrics.run("focusMaps", () -> selectAmong(selectedImages));
+        OpenCv.load();
+        try (RunMetrics.Phase phase = metrics.start("bands")) {
+            int[] size = StripReader.size(new File(inputPath + fileNames.get(selectedImages.get(0))));
+            int rowDif = size[1] / nRows;
+            int colDif = size[0] / nCols;
+            Map<Integer, StripReader.Bands> sources = new HashMap<>();
+            try (PpmWriter writer = new PpmWriter(Paths.get(outputPath + "(generalized).ppm"), colDif * nCols, rowDif * nRows)) {
+                for (int r = 0; r < nRows; r++) {
+                    for (int y = r * rowDif; y < (r + 1) * rowDif; y += bandRows) {
+                        int rows = Math.min(bandRows, (r + 1) * rowDif - y);
+                        Mat band = pool.acquire(rows, colDif * nCols, CvType.CV_8UC3);
+                        composeBand(band, r, y, size, sources, phase);
+                        writer.write(band);
+                        pool.release(band);
+                    }
+                }
+            } finally {
+                StripReader.close(sources.values());
+            }
+        } catch (IOException e) {
+            System.out.println("couldn't compose " + outputPath + " in bands : " + e.getMessage());
+        }
+        metrics.writeJson(outputPath + "(metrics).json");
+    }
+
+    /**
+     * Copies the parts of the cells (or leaves) of the row of cells r which lie in the rows [y, y + band.rows()) into
+     * the band, every selected image is read once for the band
+     * The bands of an image are opened (a JPEG decoded) the first time the image is needed and kept in sources
+     */
+    private void composeBand(Mat band, int r, int y, int[] size, Map<Integer, StripReader.Bands> sources,
+                             RunMetrics.Phase phase) throws IOException {
+        Map<Integer, List<int[]>> regions = new TreeMap<>();
+        int rowDif = size[1] / nRows;
+        int colDif = size[0] / nCols;
+        for (int part = 0; part < cells(); part++) {
+            int cell = grid != null ? grid.cell(part) : part;
+            if (cell / nCols != r) continue;
+            int c = cell % nCols;
+            int[] b = grid != null ? grid.bounds(part, size[1], size[0])
+                    : new int[]{r * rowDif, c * colDif, (r + 1) * rowDif, (c + 1) * colDif};
+            int top = Math.max(b[0], y);
+            int bottom = Math.min(b[2], y + band.rows());
+            if (top < bottom) {
+                regions.computeIfAbsent(focusSelectionMap[part], k -> new ArrayList<>())
+                        .add(new int[]{top - y, b[1], bottom - y, b[3]});
+            }
+        }
+        for (Map.Entry<Integer, List<int[]>> image : regions.entrySet()) {
+            int id = selection.imageId(image.getKey());
+            StripReader.Bands bands = sources.get(id);
+            if (bands == null) {
+                bands = StripReader.open(new File(inputPath + fileNames.get(id)));
+                sources.put(id, bands);
+            }
+            Mat source = bands.read(y, band.rows());
+            phase.addNativeBytes(RunMetrics.bytes(source));
+            for (int[] region : image.getValue()) {
+                Mat from = source.submat(region[0], region[2], region[1], region[3]);
+                Mat to = band.submat(region[0], region[2], region[1], region[3]);
+                from.copyTo(to);
+                from.release();
+                to.release();
+            }
+            source.release();
+        }
+    }
+
+    /**
+     * Per phase timings and memory of this run, written next to the output as (metrics).json by generalFocus
+     */
+    RunMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Indices of the images used for the output, set by selectImages
+     */
+    List<Integer> getSelectedImages() {
+        return selectedImages;
+    }
+
+    /**
+     * Focus map of an image, one value per cell of the grid (or leaf of the adaptive grid)
+     */
+    double[] getFocusMap(int image) {
+        return focusMeasureMaps.map(image);
+    }
+
+    /**
+     * The low resolution grayscale proxies the selection works on
+     */
+    List<GrayImage> getLowRes() {
+        return lowRes;
+    }
+
+    /**
+     * Fill the lowRes list from images which are already in memory (e.g. generated or aligned in process)
+     * The proxies are the 1/8 grayscale versions of the images, like the ones decoded in fill()
+     */
+    void fill(List<Mat> images) {
+        frames = new ArrayList<>(images);
+        try (RunMetrics.Phase phase = metrics.start("lowResDecode")) {
+            for (Mat image : images) {
+                lowRes.add(proxyOf(image, phase));
+            }
+        }
+        numberOfInputs = lowRes.size();
+    }
+
+    private GrayImage proxyOf(Mat image, RunMetrics.Phase phase) {
+        Mat gray = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+        Mat proxy = pool.acquire((image.rows() + 7) / 8, (image.cols() + 7) / 8, CvType.CV_8UC1);
+        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.resize(gray, proxy, new Size((image.cols() + 7) / 8, (image.rows() + 7) / 8), 0, 0, Imgproc.INTER_AREA);
+        phase.addNativeBytes(RunMetrics.bytes(gray) + RunMetrics.bytes(proxy));
+        GrayImage lowResImage = GrayImage.of(proxy);
+        pool.release(gray);
+        pool.release(proxy);
+        return lowResImage;
+    }
+
+    /**
+     * Online stacking: appends the image inputPath + fileName to the end of the stack and updates the focus maps, the
+     * covering sets and the selection. Only the low resolution proxy is decoded.
+     * Don't mix with frames given as Mats.
+     *
+     * @return the foreground cells of the stack so far, null if the file can't be decoded (yet)
+     */
+    CellSet addFrame(String fileName) {
+        try (RunMetrics.Phase phase = metrics.start("lowResDecode")) {
+            EncodedImage image;
+            try {
+                image = EncodedImage.read(new File(inputPath + fileName));
+            } catch (IOException e) {
+                return null;
+            }
+            Mat proxy = image.decode(Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8);
+            if (proxy.empty()) return null;
+            proxyDecoder = FocusCache.ProxyDecoder.OPENCV;
+            phase.addNativeBytes(RunMetrics.bytes(proxy));
+            encoded.put(lowRes.size(), image);
+            lowRes.add(GrayImage.of(proxy));
+            proxy.release();
+            fileNames.add(fileName);
+        }
+        return appendFrame();
+    }
+
+    /**
+     * Online stacking with frames which are already in memory (they stay owned by the caller), see addFrame(String)
+     */
+    CellSet addFrame(Mat frame) {
+        if (frames == null) frames = new ArrayList<>();
+        frames.add(frame);
+        try (RunMetrics.Phase phase = metrics.start("lowResDecode")) {
+            lowRes.add(proxyOf(frame, phase));
+        }
+        return appendFrame();
+    }
+
+    /**
+     * Only the map of the new frame is measured, the selection and the covering sets are rebuilt from the maps
+     */
+    private CellSet appendFrame() {
+        numberOfInputs = lowRes.size();
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < lowRes.size(); i++) {
+            all.add(i);
+        }
+        metrics.run("focusMaps", () -> {
+            if (grid != null || focusMeasureMaps.images() != lowRes.size() - 1) {
+                setFocusMeasureMapAndMem(all, focusMeasure);
+            } else {
+                GrayImage image = lowRes.get(lowRes.size() - 1);
+                double[] map = new double[nRows * nCols];
+                int rowDif = image.rows / nRows;
+                int colDif = image.cols / nCols;
+                Parallel.forEach(parallelism, nRows, r -> {
+                    for (int c = 0; c < nCols; c++) {
+                        map[r * nCols + c] = focusMeasure.measure(image, r * rowDif, c * colDif, rowDif, colDif);
+                    }
+                });
+                focusMeasureMaps.add(map);
+                selectAmong(all);
+            }
+        });
+        CellSet foreGround = setCover();
+        if (selectedImages.isEmpty()) selectedImages.add(0);
+        // a frame which is selected again later is read from its file
+        encoded.keySet().retainAll(selectedImages);
+        return foreGround;
+    }
+
+    /**
+     * Cells no further frame can improve: a cell whose focus varied by more than the covering threshold over the frames
+     * so far is settled once its last frame is below that threshold of its sharpest frame (the focus of a cell is uni
+     * modal over the stack, see reduceSelectionMap, so once it has left its box no later frame is sharper there), a
+     * cell which stayed within the threshold for at least flatFrames frames is background and settled as well
+     * A background cell whose sharp frame comes after flatFrames frames is therefore taken as settled too early, the
+     * larger flatFrames the rarer that is.
+     */
+    CellSet settledCells(int flatFrames) {
+        CellSet settled = new CellSet(cells());
+        int images = focusMeasureMaps.images();
+        if (images == 0) return settled;
+        double[] last = focusMeasureMaps.map(images - 1);
+        double[] sharpest = new double[cells()];
+        double[] flattest = new double[cells()];
+        Arrays.fill(flattest, Double.MAX_VALUE);
+        for (int i = 0; i < images; i++) {
+            double[] map = focusMeasureMaps.map(i);
+            for (int cell = 0; cell < sharpest.length; cell++) {
+                sharpest[cell] = Math.max(sharpest[cell], map[cell]);
+                flattest[cell] = Math.min(flattest[cell], map[cell]);
+            }
+        }
+        for (int cell = 0; cell < sharpest.length; cell++) {
+            boolean flat = sharpest[cell] - flattest[cell] <= thrashHold2;
+            if (flat ? images >= flatFrames : last[cell] < sharpest[cell] - thrashHold2) settled.add(cell);
+        }
+        return settled;
+    }
+
+    /**
+     * Composite of the images selected so far. In file mode the full resolution images stay decoded as long as they are
+     * selected, so a preview after a new frame decodes at most that frame
+     *
+     * @return the composite, owned by the engine until the next preview or composition
+     */
+    Mat preview() {
+        OpenCv.load();
+        List<Mat> images = new ArrayList<>();
+        try (RunMetrics.Phase phase = metrics.start("decode")) {
+            if (frames == null) {
+                previewFrames.entrySet().removeIf(entry -> {
+                    if (selectedImages.contains(entry.getKey())) return false;
+                    entry.getValue().release();
+                    return true;
+                });
+            }
+            for (int index : selectedImages) {
+                images.add(frames != null ? frames.get(index) : previewFrames.computeIfAbsent(index, i -> {
+                    Mat decoded = decode(i);
+                    phase.addNativeBytes(RunMetrics.bytes(decoded));
+                    return decoded;
+                }));
+            }
+        }
+        inputs = new ArrayList<>(images);
+        selectAmong(selectedImages);
+        return compose();
+    }
+
+    String getInputPath() {
+        return inputPath;
+    }
+
+
+    /**
+     * Fills the FocusMeasureMap and the FocusMeasureMem(which contains the FocusMeasures for the corresponding map)
+     * using the given focus measure (by default the improved version of the metric described by David Choi in
+     * "IMPROVED IMAGE SELECTION FOR FOCUS STACKING IN DIGITAL PHOTOGRAPHY")
+     * Every low resolution image is already a byte array, so the tiles are measured in place without any JNI calls
+     * The work is split into (image, row of cells) tasks which only write their own row of their own map, the
+     * reduction into the selection map is split by cell and visits the images in stack order, so the result is
+     * identical to a serial run without any locking
+     * With a cache the maps of images read from files are looked up first and only the missing ones are measured, the
+     * maps fill() measured while decoding are used instead of measuring them again
+     */
+    void setFocusMeasureMapAndMem(List<Integer> images, FocusMeasure requested) {
+        FocusMeasure measure = measureFor(requested);
+        grid = null;
+        this.focusSelectionMap = new int[nRows * nCols];
+        this.focusSelectionMem = new double[nRows * nCols];
+        focusMeasureMaps = new FocusMapStore(nRows * nCols);
+        List<double[]> prefetched = measure == prefetchedMeasure && prefetchedMaps != null
+                && prefetchedMaps.size() == lowRes.size() ? prefetchedMaps : null;
+        List<Boolean> prefetchedCached = prefetchedFromCache;
+        prefetchedMaps = null;
+        prefetchedFromCache = null;
+        boolean[] cached = new boolean[lowRes.size()];
+        boolean[] measured = new boolean[lowRes.size()];
+        int missing = 0;
+        int uncached = 0;
+        for (int i = 0; i < lowRes.size(); i++) {
+            // fill() already looked the maps up in the cache
+            double[] map = prefetched != null ? prefetched.get(i) : null;
+            cached[i] = map != null && prefetchedCached.get(i);
+            if (map == null && cache != null && proxyDecoder != null) {
+                map = cache.loadFocusMap(new File(inputPath + fileNames.get(i)), 8, proxyDecoder, measure, nRows, nCols);
+                cached[i] = map != null;
+            }
+            measured[i] = map != null;
+            if (!cached[i]) uncached++;
+            if (!measured[i]) missing++;
+            focusMeasureMaps.add(measured[i] ? map : new double[nRows * nCols]);
+        }
+
+        // once integral images exist (setIntegralImages, regrid or the adaptive grid) every further grid is read from them,
+        // DCT_AC is only read from them as the pixels of the proxies aren't its coefficients
+        boolean fromIntegrals = integralImages || integrals != null || measure == FocusMeasure.DCT_AC;
+        if (missing > 0 && fromIntegrals) buildIntegrals(measure);
+
+        Parallel.forEach(parallelism, lowRes.size() * nRows, task -> {
+            int i = task / nRows;
+            int r = task % nRows;
+            if (measured[i]) return;
+            GrayImage image = lowRes.get(i);
+            int rowDif = image.rows / nRows;
+            int colDif = image.cols / nCols;
+            int rowStart = r * rowDif;
+            int colStart = 0;
+            for (int c = 0; c < nCols; c++) {
+                focusMeasureMaps.map(i)[r * nCols + c] = fromIntegrals
+                        ? integrals.get(i).measure(rowStart, colStart, rowDif, colDif)
+                        : measure.measure(image, rowStart, colStart, rowDif, colDif);
+                colStart += colDif;
+            }
+        });
+
+        if (cache != null && proxyDecoder != null && uncached > 0) {
+            for (int i = 0; i < lowRes.size(); i++) {
+                if (!cached[i]) {
+                    cache.storeFocusMap(new File(inputPath + fileNames.get(i)), 8, proxyDecoder, measure, nRows, nCols,
+                            focusMeasureMaps.map(i));
+                }
+            }
+            cache.evict();
+        }
+
+        selection = focusMeasureMaps.all();
+        Parallel.forEach(parallelism, nRows, r -> selection.select(r * nCols, (r + 1) * nCols, focusSelectionMap, focusSelectionMem));
+    }
+
+
+    private void buildIntegrals(FocusMeasure requested) {
+        FocusMeasure measure = measureFor(requested);
+        if (integrals != null && integrals.size() == lowRes.size() && integrals.get(0).measure() == measure) return;
+        FocusIntegral[] built = new FocusIntegral[lowRes.size()];
+        Parallel.forEach(parallelism, lowRes.size(), i -> built[i] = measure == FocusMeasure.DCT_AC
+                ? FocusIntegral.of(blocks(i)) : FocusIntegral.of(lowRes.get(i), measure));
+        integrals = new ArrayList<>(Arrays.asList(built));
+    }
+
+    /**
+     * Number of cells the maps refer to, the leaves of the adaptive grid or nRows * nCols
+     */
+    private int cells() {
+        return grid != null ? grid.leaves() : nRows * nCols;
+    }
+
+    /**
+     * Replaces the uniform grid by the adaptive one: foreground cells whose quadrants prefer different images are split,
+     * a quadrant which is homogeneous over the stack (see determineBackgroundAndHomogeneousCells), agrees with its
+     * parent or is too small to be split again becomes a leaf, the others are split further. The measure of a leaf is scaled to the area of a grid cell, so the thresholds
+     * mean the same for every leaf. The maps, focusSelectionMap and focusSelectionMem then hold one value per leaf.
+     * The quadrants are measured like the cells, on the AC energy of the JPEG blocks for a DCT_AC stack.
+     */
+    private void refine(CellSet foreGround, FocusMeasure measure) {
+        buildIntegrals(measure);
+        QuadtreeGrid refined = new QuadtreeGrid(nRows, nCols);
+        List<List<int[]>> leaves = new ArrayList<>();
+        List<List<double[]>> values = new ArrayList<>();
+        for (int cell = 0; cell < nRows * nCols; cell++) {
+            leaves.add(new ArrayList<>());
+            values.add(new ArrayList<>());
+        }
+        Parallel.forEach(parallelism, nRows * nCols, cell -> {
+            double[] focus = new double[lowRes.size()];
+            for (int i = 0; i < lowRes.size(); i++) {
+                focus[i] = focusMeasureMaps.map(i)[cell];
+            }
+            if (foreGround.contains(cell)) {
+                split(refined, cell, 0, 0, 0, focus, leaves.get(cell), values.get(cell));
+            } else {
+                leaves.get(cell).add(new int[]{0, 0, 0});
+                values.get(cell).add(focus);
+            }
+        });
+
+        List<double[]> leafValues = new ArrayList<>();
+        for (int cell = 0; cell < nRows * nCols; cell++) {
+            for (int[] leaf : leaves.get(cell)) {
+                refined.add(cell, leaf[0], leaf[1], leaf[2]);
+            }
+            leafValues.addAll(values.get(cell));
+        }
+        grid = refined;
+        focusMeasureMaps = new FocusMapStore(grid.leaves());
+        for (int i = 0; i < lowRes.size(); i++) {
+            double[] map = new double[grid.leaves()];
+            for (int leaf = 0; leaf < map.length; leaf++) {
+                map[leaf] = leafValues.get(leaf)[i];
+            }
+            focusMeasureMaps.add(map);
+        }
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < lowRes.size(); i++) {
+            all.add(i);
+        }
+        selectAmong(all);
+        System.out.printf("Adaptive grid with %d cells\n", grid.leaves());
+    }
+
+    /**
+     * Adds the leaves of the part (row, col) at depth of a cell, whose focus over the stack is given
+     * The part stays a leaf unless its foreground quadrants prefer different images than the part itself (an edge
+     * between objects at different depths runs through it), otherwise every quadrant is handled the same way
+     */
+    private void split(QuadtreeGrid tree, int cell, int depth, int row, int col, double[] focus,
+                       List<int[]> leaves, List<double[]> values) {
+        GrayImage proxy = lowRes.get(0);
+        if (!canSplit(tree, cell, depth)) {
+            leaves.add(new int[]{depth, row, col});
+            values.add(focus);
+            return;
+        }
+        int[] whole = tree.bounds(cell, 0, 0, 0, proxy.rows, proxy.cols);
+        double cellArea = (double) (whole[2] - whole[0]) * (whole[3] - whole[1]);
+        double[][] quadrants = new double[4][lowRes.size()];
+        boolean[] foreGround = new boolean[4];
+        boolean mixed = false;
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            int[] b = tree.bounds(cell, depth + 1, 2 * row + quadrant / 2, 2 * col + quadrant % 2, proxy.rows, proxy.cols);
+            double scale = cellArea / ((b[2] - b[0]) * (b[3] - b[1]));
+            double mean = 0;
+            for (int i = 0; i < lowRes.size(); i++) {
+                quadrants[quadrant][i] = integrals.get(i).measure(b[0], b[1], b[2] - b[0], b[3] - b[1]) * scale;
+                mean += quadrants[quadrant][i];
+            }
+            mean /= lowRes.size();
+            double biggest = 0;
+            for (double f : quadrants[quadrant]) {
+                biggest = Math.max(biggest, Math.abs(f - mean));
+            }
+            foreGround[quadrant] = biggest >= thrashHold;
+            if (foreGround[quadrant] && sharpest(quadrants[quadrant]) != sharpest(focus)) mixed = true;
+        }
+        if (!mixed) {
+            leaves.add(new int[]{depth, row, col});
+            values.add(focus);
+            return;
+        }
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            int childRow = 2 * row + quadrant / 2;
+            int childCol = 2 * col + quadrant % 2;
+            if (foreGround[quadrant]) {
+                split(tree, cell, depth + 1, childRow, childCol, quadrants[quadrant], leaves, values);
+            } else {
+                leaves.add(new int[]{depth + 1, childRow, childCol});
+                values.add(quadrants[quadrant]);
+            }
+        }
+    }
+
+    /**
+     * Index of the largest focus, the first one on ties (like the reduction into focusSelectionMap)
+     */
+    private static int sharpest(double[] focus) {
+        int sharpest = 0;
+        for (int i = 1; i < focus.length; i++) {
+            if (focus[sharpest] < focus[i]) sharpest = i;
+        }
+        return sharpest;
+    }
+
+    /**
+     * Whether the quadrants of a cell at the given depth are still at least quadtreeMinCellSize pixels in both directions
+     */
+    private boolean canSplit(QuadtreeGrid tree, int cell, int depth) {
+        GrayImage proxy = lowRes.get(0);
+        int[] b = tree.bounds(cell, depth + 1, 0, 0, proxy.rows, proxy.cols);
+        return b[2] - b[0] >= quadtreeMinCellSize && b[3] - b[1] >= quadtreeMinCellSize;
+    }
+
+    /**
+     * Chooses for every cell the sharpest of the given images, using the focus maps which are already computed
+     * focusSelectionMap then holds positions in images (the same as recomputing the maps of only these images), which
+     * selection.imageId maps back to the images of the stack
+     */
+    void selectAmong(List<Integer> images) {
+        focusSelectionMap = new int[cells()];
+        focusSelectionMem = new double[cells()];
+        selection = focusMeasureMaps.subset(images);
+        selection.select(0, cells(), focusSelectionMap, focusSelectionMem);
+    }
+
+
+    /**
+     * Algorithm to reduce the Stack of actually used images described by Daniel Vaquero in Generalized Autofocus
+     * Considering that there is an order between the sets and for a given cell its sharpness varies as a function of
+     * the images in the stack. This function is uni modal and therefore it becomes a box function once it is
+     * thresholded
+     * exploiting this additional information we can solve the usualy NP-complete setCovering in linear time
+     **/
+    private static List<Integer> reduceSelectionMap(List<CellSet> coveringSets, CellSet foreGround) {
+        int cells = foreGround.capacity();
+        for (CellSet coveringSet : coveringSets) {
+            coveringSet.and(foreGround);
+        }
+        coveringSets.add(new CellSet(cells));
+        CellSet active = new CellSet(cells);
+        CellSet processed = new CellSet(cells);
+        CellSet sharp = new CellSet(cells);
+        CellSet f0 = new CellSet(cells);
+        CellSet f1 = new CellSet(cells);
+        List<Integer> selectedImages = new ArrayList<>();
+        for (int i = 1; i < coveringSets.size(); i++) {
+            sharp.copyFrom(coveringSets.get(i - 1)).andNot(processed);
+            f0.copyFrom(active).andNot(sharp);
+            f1.copyFrom(sharp).andNot(active);
+            if (!f0.isEmpty()) {
+                selectedImages.add(i - 1);
+            }
+            if (!f1.isEmpty()) {
+                active.or(f1);
+            }
+        }
+        coveringSets.remove(coveringSets.size() - 1);
+        return selectedImages;
+    }
+}
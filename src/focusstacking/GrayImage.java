@@ -0,0 +1,31 @@
+package focusstacking;
+
+import org.opencv.core.Mat;
+
+/**
+ * Single channel 8 bit image held in a plain byte array (row major, unsigned values)
+ * so the focus measures can read pixels without going through JNI for every access
+ */
+public final class GrayImage {
+    final byte[] pixels;
+    final int rows;
+    final int cols;
+
+    GrayImage(byte[] pixels, int rows, int cols) {
+        if (pixels.length != rows * cols) {
+            throw new IllegalArgumentException("Expected " + rows * cols + " pixels but got " + pixels.length);
+        }
+        this.pixels = pixels;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * Copies a single channel 8 bit Mat with one bulk transfer
+     */
+    static GrayImage of(Mat mat) {
+        byte[] pixels = new byte[mat.rows() * mat.cols()];
+        mat.get(0, 0, pixels);
+        return new GrayImage(pixels, mat.rows(), mat.cols());
+    }
+}
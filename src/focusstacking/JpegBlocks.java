@@ -0,0 +1,393 @@
+package focusstacking;
+
+import java.util.Arrays;
+
+/**
+ * The 8x8 luma blocks of a baseline JPEG file, read straight from the entropy coded data
+ * Only the Huffman codes are decoded, there is no inverse DCT, no upsampling and no color conversion: the DC
+ * coefficient of a block is 8 times its mean (so the DC values are the 1/8 grayscale proxy, like
+ * IMREAD_REDUCED_GRAYSCALE_8) and its AC coefficients are its high frequency content, which is what the focus
+ * measures look for. A block is one pixel of the proxy, so the cells of the grid select the same blocks as pixels.
+ * Progressive, arithmetic coded, lossless and 12 bit files aren't supported (read returns null).
+ */
+public final class JpegBlocks {
+    /**
+     * Mean of every luma block
+     */
+    final GrayImage dc;
+    /**
+     * Sum of the absolute dequantized AC coefficients of every luma block
+     */
+    final int[] acEnergy;
+
+    private JpegBlocks(GrayImage dc, int[] acEnergy) {
+        this.dc = dc;
+        this.acEnergy = acEnergy;
+    }
+
+    /**
+     * @return the blocks of the file, null if it isn't a (complete) baseline or extended sequential Huffman JPEG
+     */
+    static JpegBlocks read(byte[] jpeg) {
+        try {
+            return new Parser(jpeg).parse();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * AC energy of the rows x cols blocks whose upper left block is (rowStart, colStart), normalised like
+     * FocusMeasure (sum / cols * rows), the values aren't in the range of the pixel measures though
+     */
+    double measure(int rowStart, int colStart, int rows, int cols) {
+        long sum = 0;
+        for (int r = rowStart; r < rowStart + rows; r++) {
+            int i = r * dc.cols + colStart;
+            for (int c = 0; c < cols; c++) {
+                sum += acEnergy[i + c];
+            }
+        }
+        return (double) sum / cols * rows;
+    }
+
+    private static final class Parser {
+        private final byte[] data;
+        private int pos;
+        private final int[][] quantization = new int[4][];
+        private final Huffman[] dcTables = new Huffman[4];
+        private final Huffman[] acTables = new Huffman[4];
+        private int width;
+        private int height;
+        private int restartInterval;
+        private int[] componentIds;
+        private int[] horizontal;
+        private int[] vertical;
+        private int[] quantizationIds;
+        // the entropy coded bits, msb aligned
+        private int bits;
+        private int bitCount;
+        private boolean atMarker;
+
+        Parser(byte[] data) {
+            this.data = data;
+        }
+
+        JpegBlocks parse() {
+            if (u8() != 0xFF || u8() != 0xD8) throw new IllegalArgumentException("not a JPEG file");
+            while (true) {
+                int marker = nextMarker();
+                if (marker == 0xC0 || marker == 0xC1) {
+                    readFrame();
+                } else if (marker == 0xC4) {
+                    readHuffmanTables();
+                } else if (marker == 0xDB) {
+                    readQuantizationTables();
+                } else if (marker == 0xDD) {
+                    u16();
+                    restartInterval = u16();
+                } else if (marker == 0xDA) {
+                    JpegBlocks blocks = readScan();
+                    if (blocks != null) return blocks;
+                } else if (marker >= 0xC2 && marker <= 0xCF || marker == 0xD9) {
+                    throw new IllegalArgumentException("unsupported JPEG (marker " + Integer.toHexString(marker) + ")");
+                } else {
+                    skip(u16() - 2);
+                }
+            }
+        }
+
+        private void readFrame() {
+            u16();
+            if (u8() != 8) throw new IllegalArgumentException("only 8 bit samples are supported");
+            height = u16();
+            width = u16();
+            if (height == 0 || width == 0) throw new IllegalArgumentException("no image size in the frame header");
+            int components = u8();
+            componentIds = new int[components];
+            horizontal = new int[components];
+            vertical = new int[components];
+            quantizationIds = new int[components];
+            for (int i = 0; i < components; i++) {
+                componentIds[i] = u8();
+                int sampling = u8();
+                horizontal[i] = Math.max(1, sampling >> 4);
+                vertical[i] = Math.max(1, sampling & 15);
+                quantizationIds[i] = u8() & 3;
+            }
+        }
+
+        private void readHuffmanTables() {
+            int end = pos + u16() - 2;
+            while (pos < end) {
+                int classAndId = u8();
+                int[] counts = new int[16];
+                int total = 0;
+                for (int i = 0; i < 16; i++) {
+                    counts[i] = u8();
+                    total += counts[i];
+                }
+                int[] symbols = new int[total];
+                for (int i = 0; i < total; i++) {
+                    symbols[i] = u8();
+                }
+                Huffman table = new Huffman(counts, symbols);
+                if (classAndId >> 4 == 0) dcTables[classAndId & 3] = table;
+                else acTables[classAndId & 3] = table;
+            }
+        }
+
+        private void readQuantizationTables() {
+            int end = pos + u16() - 2;
+            while (pos < end) {
+                int precisionAndId = u8();
+                int[] table = new int[64];
+                for (int k = 0; k < 64; k++) {
+                    // zig zag order, the order the coefficients are coded in
+                    table[k] = precisionAndId >> 4 == 0 ? u8() : u16();
+                }
+                quantization[precisionAndId & 3] = table;
+            }
+        }
+
+        /**
+         * @return the blocks if the scan contains the luma component, null for a scan of other components
+         */
+        private JpegBlocks readScan() {
+            if (componentIds == null) throw new IllegalArgumentException("scan before the frame header");
+            u16();
+            int n = u8();
+            int[] components = new int[n];
+            Huffman[] dc = new Huffman[n];
+            Huffman[] ac = new Huffman[n];
+            int[][] quant = new int[n][];
+            boolean luma = false;
+            for (int k = 0; k < n; k++) {
+                int id = u8();
+                int tables = u8();
+                components[k] = -1;
+                for (int i = 0; i < componentIds.length; i++) {
+                    if (componentIds[i] == id) components[k] = i;
+                }
+                if (components[k] < 0) throw new IllegalArgumentException("unknown component " + id);
+                luma |= components[k] == 0;
+                dc[k] = dcTables[tables >> 4 & 3];
+                ac[k] = acTables[tables & 3];
+                quant[k] = quantization[quantizationIds[components[k]]];
+                if (dc[k] == null || ac[k] == null || quant[k] == null) {
+                    throw new IllegalArgumentException("missing table");
+                }
+            }
+            skip(3);
+            if (!luma) {
+                skipEntropyCodedData();
+                return null;
+            }
+
+            int maxHorizontal = 1;
+            int maxVertical = 1;
+            for (int i = 0; i < componentIds.length; i++) {
+                maxHorizontal = Math.max(maxHorizontal, horizontal[i]);
+                maxVertical = Math.max(maxVertical, vertical[i]);
+            }
+            if (horizontal[0] != maxHorizontal || vertical[0] != maxVertical) {
+                throw new IllegalArgumentException("subsampled luma");
+            }
+            int rows = (height + 7) / 8;
+            int cols = (width + 7) / 8;
+            byte[] means = new byte[rows * cols];
+            int[] energy = new int[rows * cols];
+
+            // a scan of one component codes its blocks in raster order, otherwise in MCUs of h x v blocks per component
+            boolean interleaved = n > 1;
+            int mcuRows = interleaved ? (height + 8 * maxVertical - 1) / (8 * maxVertical) : rows;
+            int mcuCols = interleaved ? (width + 8 * maxHorizontal - 1) / (8 * maxHorizontal) : cols;
+            int[] predictions = new int[n];
+            int mcus = mcuRows * mcuCols;
+            for (int mcu = 0; mcu < mcus; mcu++) {
+                if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                    restart();
+                    Arrays.fill(predictions, 0);
+                }
+                int mcuRow = mcu / mcuCols;
+                int mcuCol = mcu % mcuCols;
+                for (int k = 0; k < n; k++) {
+                    int blockRows = interleaved ? vertical[components[k]] : 1;
+                    int blockCols = interleaved ? horizontal[components[k]] : 1;
+                    for (int v = 0; v < blockRows; v++) {
+                        for (int h = 0; h < blockCols; h++) {
+                            int s = decode(dc[k]);
+                            predictions[k] += s == 0 ? 0 : extend(receive(s), s);
+                            int blockEnergy = decodeAc(ac[k], quant[k]);
+                            int r = mcuRow * blockRows + v;
+                            int c = mcuCol * blockCols + h;
+                            if (components[k] == 0 && r < rows && c < cols) {
+                                int mean = Math.round(predictions[k] * quant[k][0] / 8f) + 128;
+                                means[r * cols + c] = (byte) Math.max(0, Math.min(255, mean));
+                                energy[r * cols + c] = blockEnergy;
+                            }
+                        }
+                    }
+                }
+            }
+            return new JpegBlocks(new GrayImage(means, rows, cols), energy);
+        }
+
+        /**
+         * Decodes the AC coefficients of a block
+         *
+         * @return the sum of their absolute dequantized values
+         */
+        private int decodeAc(Huffman table, int[] quant) {
+            int energy = 0;
+            for (int k = 1; k < 64; k++) {
+                int runAndSize = decode(table);
+                int run = runAndSize >> 4;
+                int size = runAndSize & 15;
+                if (size == 0) {
+                    if (run != 15) break;
+                    k += 15;
+                    continue;
+                }
+                k += run;
+                if (k > 63) throw new IllegalArgumentException("bad AC run");
+                energy += Math.abs(extend(receive(size), size)) * quant[k];
+            }
+            return energy;
+        }
+
+        private int decode(Huffman table) {
+            fill();
+            int entry = table.lookup[bits >>> (32 - Huffman.LOOKUP_BITS)];
+            if (entry != 0) {
+                consume(entry >> 8);
+                return entry & 0xFF;
+            }
+            for (int length = Huffman.LOOKUP_BITS + 1; length <= 16; length++) {
+                int code = bits >>> (32 - length);
+                if (code <= table.maxCode[length]) {
+                    consume(length);
+                    return table.symbols[table.valuePointer[length] + code - table.minCode[length]];
+                }
+            }
+            throw new IllegalArgumentException("bad Huffman code");
+        }
+
+        private int receive(int size) {
+            fill();
+            int value = bits >>> (32 - size);
+            consume(size);
+            return value;
+        }
+
+        private static int extend(int value, int size) {
+            return value < 1 << (size - 1) ? value - (1 << size) + 1 : value;
+        }
+
+        private void consume(int n) {
+            bits <<= n;
+            bitCount -= n;
+        }
+
+        /**
+         * Tops the bit buffer up to at least 25 bits, the stuffed 0 after a 0xFF is dropped and a marker (or the end of
+         * the data) reads as zeros until restart() or the end of the scan
+         */
+        private void fill() {
+            while (bitCount <= 24) {
+                int b = 0;
+                if (!atMarker && pos < data.length) {
+                    b = data[pos] & 0xFF;
+                    if (b != 0xFF) {
+                        pos++;
+                    } else if (pos + 1 < data.length && data[pos + 1] == 0) {
+                        pos += 2;
+                    } else {
+                        atMarker = true;
+                        b = 0;
+                    }
+                }
+                bits |= b << (24 - bitCount);
+                bitCount += 8;
+            }
+        }
+
+        /**
+         * Drops the bits left in the current interval and steps over the RSTn marker after it
+         */
+        private void restart() {
+            bits = 0;
+            bitCount = 0;
+            atMarker = false;
+            int marker = nextMarker();
+            if (marker < 0xD0 || marker > 0xD7) throw new IllegalArgumentException("missing restart marker");
+        }
+
+        private void skipEntropyCodedData() {
+            while (pos + 1 < data.length) {
+                if ((data[pos] & 0xFF) == 0xFF && data[pos + 1] != 0 && ((data[pos + 1] & 0xFF) < 0xD0 || (data[pos + 1] & 0xFF) > 0xD7)) {
+                    return;
+                }
+                pos++;
+            }
+            throw new IllegalArgumentException("truncated scan");
+        }
+
+        private int nextMarker() {
+            if (u8() != 0xFF) throw new IllegalArgumentException("marker expected at " + (pos - 1));
+            int marker = u8();
+            while (marker == 0xFF) {
+                marker = u8();
+            }
+            return marker;
+        }
+
+        private int u8() {
+            if (pos >= data.length) throw new IllegalArgumentException("truncated JPEG");
+            return data[pos++] & 0xFF;
+        }
+
+        private int u16() {
+            return u8() << 8 | u8();
+        }
+
+        private void skip(int n) {
+            if (n < 0 || pos + n > data.length) throw new IllegalArgumentException("truncated JPEG");
+            pos += n;
+        }
+    }
+
+    /**
+     * Canonical Huffman table (JPEG annex C), codes up to LOOKUP_BITS long are decoded with one lookup
+     */
+    private static final class Huffman {
+        static final int LOOKUP_BITS = 9;
+        // (length << 8) | symbol for every LOOKUP_BITS bit prefix, 0 if the code is longer
+        final int[] lookup = new int[1 << LOOKUP_BITS];
+        final int[] minCode = new int[17];
+        final int[] maxCode = new int[17];
+        final int[] valuePointer = new int[17];
+        final int[] symbols;
+
+        Huffman(int[] counts, int[] symbols) {
+            this.symbols = symbols;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valuePointer[length] = k;
+                minCode[length] = code;
+                maxCode[length] = counts[length - 1] > 0 ? code + counts[length - 1] - 1 : -1;
+                for (int i = 0; i < counts[length - 1]; i++, code++, k++) {
+                    if (code >= 1 << length) throw new IllegalArgumentException("bad Huffman table");
+                    if (length <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - length;
+                        for (int suffix = 0; suffix < 1 << shift; suffix++) {
+                            lookup[code << shift | suffix] = length << 8 | symbols[k];
+                        }
+                    }
+                }
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package focusstacking;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+
+public class Launcher {
+
+    private static int nRows = 16;
+    private static int nCols = 24;
+    private static int nThreads = Runtime.getRuntime().availableProcessors();
+    // Integral images make repeated focus maps (other grids, thresholds) almost free at 8 bytes per low res pixel
+    private static boolean integralImages = false;
+    // Half width of the blend across cell seams in pixels, 0 keeps hard cell borders
+    private static int featherWidth = 0;
+    // Above 0 the foreground cells are split adaptively down to this many low res pixels (0 keeps the uniform grid)
+    private static int quadtreeMinCellSize = 0;
+    // Scenes of generateAllResults run concurrently as long as their estimated native memory fits into the budget
+    private static long nativeMemoryBudget = 8L << 30;
+    private static int maxConcurrentScenes = 4;
+    // Same size Mats (output, grayscale frames) are reused across scenes, the pool is part of the budget above
+    private static long matPoolBytes = 1L << 30;
+    private static MatPool matPool;
+    // "online <scene>" stops when no frame arrived for this long (or earlier when the stack can't improve any more)
+    private static long onlineIdleMillis = 60_000;
+    // "bands <scene>" decodes the images in bands of this many rows, for scenes too big for memory
+    private static int bandRows = 512;
+    // Proxies and focus maps are cached on disk keyed by file, size and modification time, null disables the cache
+    private static Path cacheDirectory = Paths.get(System.getProperty("user.dir"), "Images", "cache");
+    private static long cacheMaxBytes = 1L << 30;
+    private static FocusCache cache;
+    // DCT_AC measures JPEG inputs on their coefficients without decoding them (its values need other thresholds)
+    private static FocusMeasure focusMeasure = FocusMeasure.IMPROVED;
+    // Decode the proxies without OpenCV, which is then only loaded for the composition (sweeps without pairs never load it)
+    private static boolean pureJavaSelection = false;
+    // "daemon [port]" serves stacking jobs on this port of the loopback address (see StackingDaemon)
+    private static int daemonPort = 8642;
+    // Every start of the daemon writes its token (required by /stack and /shutdown) to this file, null only prints it
+    private static Path daemonTokenFile = Paths.get(System.getProperty("user.dir"), "Images", "daemon.token");
+    // The ThrashHold can change The result and highly depends on the Image;
+    //(Especially the amount of images used for the Stack and Background determination)
+    private static double setCoverThrashHold = 30;
+    private static double backgroundThrashHold = setCoverThrashHold*3;
+    // Threshold pairs evaluated by "sweep <scene> [pair to compose]..." on focus maps which are computed once
+    private static double[] sweepBackgroundThrashHolds = {30, 60, 90, 120, 180};
+    private static double[] sweepSetCoverThrashHolds = {10, 20, 30, 40, 60};
+    // Grids evaluated by "grids <scene> [grid to compose]" on integral images which are computed once
+    private static int[][] sweepGrids = {{8, 12}, {12, 18}, {16, 24}, {24, 36}, {32, 48}};
+    public static void main(String[] args) {
+        // OpenCV is loaded by the first step which needs it, see OpenCv
+        matPool = new MatPool(matPoolBytes);
+        if (cacheDirectory != null) cache = new FocusCache(cacheDirectory, cacheMaxBytes);
+        if (args.length >= 2 && args[0].equals("sweep")) {
+            generateSweep(args[1], Arrays.copyOfRange(args, 2, args.length));
+            return;
+        }
+        if (args.length >= 2 && args[0].equals("grids")) {
+            generateGridSweep(args[1], args.length >= 3 ? Integer.parseInt(args[2]) : -1);
+            return;
+        }
+        if (args.length == 2 && args[0].equals("align")) {
+            generateAlignedResult(args[1]);
+            return;
+        }
+        if (args.length == 2 && args[0].equals("bands")) {
+            generateBandedResult(args[1]);
+            return;
+        }
+        if (args.length == 2 && args[0].equals("online")) {
+            generateOnlineResult(args[1]);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("daemon")) {
+            runDaemon(args.length >= 2 ? Integer.parseInt(args[1]) : daemonPort);
+            return;
+        }
+//        generateResult(args[0]);
+        generateAllResults();
+    }
+
+    static private void generateResult(String name) {
+        String input = System.getProperty("user.dir") + "\\Images\\aligned\\" + name + "\\";
+        String output = System.getProperty("user.dir") + "\\Images\\results(prealigned)\\" + name;
+//        FocusStacking focusStacking = new FocusStacking(input, output);
+//        focusStacking.fill();
+//        focusStacking.focusStack();
+
+        GeneralizedFocus generalizedFocus = new GeneralizedFocus(input, output, nRows, nCols, backgroundThrashHold, setCoverThrashHold);
+        generalizedFocus.setParallelism(nThreads);
+        generalizedFocus.setIntegralImages(integralImages);
+        generalizedFocus.setFeatherWidth(featherWidth);
+        generalizedFocus.setMatPool(matPool);
+        generalizedFocus.setQuadtree(quadtreeMinCellSize);
+        generalizedFocus.setCache(cache);
+        generalizedFocus.setFocusMeasure(focusMeasure);
+        generalizedFocus.setPureJavaSelection(pureJavaSelection);
+        generalizedFocus.fill();
+        generalizedFocus.generalFocus();
+    }
+
+    /**
+     * Aligns the original images of a scene in process (instead of main.py) and stacks the aligned Mats directly
+     */
+    static private void generateAlignedResult(String name) {
+        String input = System.getProperty("user.dir") + "\\Images\\originals\\" + name + "\\";
+        String output = System.getProperty("user.dir") + "\\Images\\results\\" + name;
+
+        OpenCv.load();
+        List<Mat> originals = Aligner.read(input);
+        if (originals.isEmpty()) return;
+        List<Mat> aligned = new Aligner(nThreads).align(originals);
+
+        GeneralizedFocus generalizedFocus = new GeneralizedFocus(input, output, nRows, nCols, backgroundThrashHold, setCoverThrashHold);
+        generalizedFocus.setParallelism(nThreads);
+        generalizedFocus.setIntegralImages(integralImages);
+        generalizedFocus.setFeatherWidth(featherWidth);
+        generalizedFocus.setMatPool(matPool);
+        generalizedFocus.setQuadtree(quadtreeMinCellSize);
+        generalizedFocus.fill(aligned);
+        generalizedFocus.generalFocus();
+        originals.forEach(Mat::release);
+        aligned.subList(1, aligned.size()).forEach(Mat::release);
+    }
+
+    /**
+     * Stacks a scene whose images are too big to be decoded at once, the result is written as (generalized).ppm
+     */
+    static private void generateBandedResult(String name) {
+        String input = System.getProperty("user.dir") + "\\Images\\aligned\\" + name + "\\";
+        String output = System.getProperty("user.dir") + "\\Images\\results(prealigned)\\" + name;
+
+        GeneralizedFocus generalizedFocus = new GeneralizedFocus(input, output, nRows, nCols, backgroundThrashHold, setCoverThrashHold);
+        generalizedFocus.setParallelism(nThreads);
+        generalizedFocus.setIntegralImages(integralImages);
+        generalizedFocus.setQuadtree(quadtreeMinCellSize);
+        generalizedFocus.setMatPool(matPool);
+        generalizedFocus.setCache(cache);
+        generalizedFocus.fillInBands(bandRows);
+        generalizedFocus.generalFocusInBands(bandRows);
+    }
+
+    /**
+     * Stacks the frames of a scene while they are written into its directory (tethered capture), a preview is written
+     * after every frame and the result as soon as no further frame can improve it
+     */
+    static private void generateOnlineResult(String name) {
+        String input = System.getProperty("user.dir") + "\\Images\\aligned\\" + name + "\\";
+        String output = System.getProperty("user.dir") + "\\Images\\results(prealigned)\\" + name;
+
+        GeneralizedFocus generalizedFocus = new GeneralizedFocus(input, output, nRows, nCols, backgroundThrashHold, setCoverThrashHold);
+        generalizedFocus.setParallelism(nThreads);
+        generalizedFocus.setFeatherWidth(featherWidth);
+        generalizedFocus.setMatPool(matPool);
+        try {
+            new OnlineStacker(generalizedFocus).watch(onlineIdleMillis,
+                    preview -> Imgcodecs.imwrite(output.replace("\\", "/") + "(preview).jpg", preview));
+        } catch (IOException | InterruptedException e) {
+            System.out.println("stopped watching " + input + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serves stacking jobs until the daemon is shut down, the engines get the settings above and share pool and cache
+     */
+    static private void runDaemon(int port) {
+        try {
+            new StackingDaemon(port, maxConcurrentScenes, daemonTokenFile, generalizedFocus -> {
+                generalizedFocus.setParallelism(nThreads);
+                generalizedFocus.setIntegralImages(integralImages);
+                generalizedFocus.setFeatherWidth(featherWidth);
+                generalizedFocus.setMatPool(matPool);
+                generalizedFocus.setQuadtree(quadtreeMinCellSize);
+                generalizedFocus.setCache(cache);
+                generalizedFocus.setFocusMeasure(focusMeasure);
+                generalizedFocus.setPureJavaSelection(pureJavaSelection);
+            }, focusStacking -> {
+                focusStacking.setParallelism(nThreads);
+                focusStacking.setMatPool(matPool);
+            }).run();
+        } catch (IOException | InterruptedException e) {
+            System.out.println("stacking daemon stopped : " + e.getMessage());
+        }
+    }
+
+    static private void generateSweep(String name, String[] pairsToCompose) {
+        String input = System.getProperty("user.dir") + "\\Images\\aligned\\" + name + "\\";
+        String output = System.getProperty("user.dir") + "\\Images\\results(prealigned)\\" + name;
+
+        GeneralizedFocus generalizedFocus = new GeneralizedFocus(input, output, nRows, nCols, backgroundThrashHold, setCoverThrashHold);
+        generalizedFocus.setParallelism(nThreads);
+        generalizedFocus.setIntegralImages(integralImages);
+        generalizedFocus.setFeatherWidth(featherWidth);
+        generalizedFocus.setMatPool(matPool);
+        generalizedFocus.setQuadtree(quadtreeMinCellSize);
+        generalizedFocus.setCache(cache);
+        generalizedFocus.setFocusMeasure(focusMeasure);
+        generalizedFocus.setPureJavaSelection(pureJavaSelection);
+        generalizedFocus.fill();
+        List<GeneralizedFocus.SweepResult> results = generalizedFocus.sweep(sweepBackgroundThrashHolds, sweepSetCoverThrashHolds);
+        for (String pair : pairsToCompose) {
+            generalizedFocus.generalFocus(results.get(Integer.parseInt(pair)));
+        }
+    }
+
+    /**
+     * Evaluates the grids of sweepGrids on one scene and composes the chosen one (-1 composes none)
+     */
+    static private void generateGridSweep(String name, int gridToCompose) {
+        String input = System.getProperty("user.dir") + "\\Images\\aligned\\" + name + "\\";
+        String output = System.getProperty("user.dir") + "\\Images\\results(prealigned)\\" + name;
+
+        GeneralizedFocus generalizedFocus = new GeneralizedFocus(input, output, nRows, nCols, backgroundThrashHold, setCoverThrashHold);
+        generalizedFocus.setParallelism(nThreads);
+        generalizedFocus.setFeatherWidth(featherWidth);
+        generalizedFocus.setMatPool(matPool);
+        generalizedFocus.setCache(cache);
+        generalizedFocus.setFocusMeasure(focusMeasure);
+        generalizedFocus.setPureJavaSelection(pureJavaSelection);
+        generalizedFocus.fill();
+        generalizedFocus.gridSweep(sweepGrids);
+        if (gridToCompose >= 0) {
+            generalizedFocus.regrid(sweepGrids[gridToCompose][0], sweepGrids[gridToCompose][1]);
+            generalizedFocus.generalFocus();
+        }
+    }
+
+    static private void generateAllResults() {
+        File directory = new File(System.getProperty("user.dir") + "\\Images\\aligned\\");
+        if (!directory.exists()) {
+            System.out.println("directory : " + System.getProperty("user.dir") + "\\Images\\aligned\\ doesn't exist");
+        } else {
+            File[] files = directory.listFiles(File::isDirectory);
+            assert files != null;
+            BatchScheduler scheduler = new BatchScheduler(nativeMemoryBudget - matPoolBytes, maxConcurrentScenes, integralImages || quadtreeMinCellSize > 0);
+            List<BatchScheduler.SceneResult> results = scheduler.run(Arrays.asList(files), file -> {
+
+                System.out.println(file.toString().replace("aligned", "results(prealigned)"));
+
+//                FocusStacking focusStacking = new FocusStacking(file + "\\", file.toString().replace("aligned", "results(prealigned)"));
+//                focusStacking.fill();
+//                focusStacking.focusStack();
+
+                GeneralizedFocus generalizedFocus = new GeneralizedFocus(file + "\\", file.toString().replace("aligned", "results(prealigned)"), nRows, nCols, backgroundThrashHold, setCoverThrashHold);
+                generalizedFocus.setParallelism(nThreads);
+                generalizedFocus.setIntegralImages(integralImages);
+                generalizedFocus.setFeatherWidth(featherWidth);
+                generalizedFocus.setMatPool(matPool);
+                generalizedFocus.setQuadtree(quadtreeMinCellSize);
+                generalizedFocus.setCache(cache);
+                generalizedFocus.setFocusMeasure(focusMeasure);
+                generalizedFocus.setPureJavaSelection(pureJavaSelection);
+                generalizedFocus.fill();
+                generalizedFocus.generalFocus();
+            });
+            BatchScheduler.printSummary(results);
+        }
+    }
+}
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
@@ -0,0 +1,77 @@
+package focusstacking;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool of native Mat buffers which can be shared by the scenes of a batch
+ * Scenes from the same camera need buffers of the same shape over and over (grayscale frames, laplacians, the output),
+ * so a released Mat is kept and handed out again instead of being freed and allocated by the next scene. The free
+ * Mats never hold more than maxBytes together, the least recently returned ones are freed first. A pool of 0 bytes
+ * pools nothing and just releases what it gets back.
+ */
+public final class MatPool {
+    private final long maxBytes;
+    private final ArrayDeque<Mat> free = new ArrayDeque<>();
+    private long freeBytes;
+
+    /**
+     * @param maxBytes cap of the native memory held by the free Mats
+     */
+    MatPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * A Mat of the given shape, pooled if there is one (its content is undefined) or newly allocated
+     */
+    synchronized Mat acquire(int rows, int cols, int type) {
+        for (Iterator<Mat> it = free.descendingIterator(); it.hasNext(); ) {
+            Mat mat = it.next();
+            if (mat.rows() == rows && mat.cols() == cols && mat.type() == type) {
+                it.remove();
+                freeBytes -= RunMetrics.bytes(mat);
+                return mat;
+            }
+        }
+        return new Mat(rows, cols, type);
+    }
+
+    /**
+     * Gives a Mat back to the pool, it must not be used afterwards (null is ignored)
+     * Mats bigger than the whole pool and non continuous views (submat) are released right away
+     */
+    synchronized void release(Mat mat) {
+        if (mat == null) return;
+        long bytes = RunMetrics.bytes(mat);
+        if (bytes == 0 || bytes > maxBytes || !mat.isContinuous()) {
+            mat.release();
+            return;
+        }
+        while (freeBytes + bytes > maxBytes) {
+            Mat oldest = free.removeFirst();
+            freeBytes -= RunMetrics.bytes(oldest);
+            oldest.release();
+        }
+        free.addLast(mat);
+        freeBytes += bytes;
+    }
+
+    /**
+     * Native bytes currently held by the free Mats
+     */
+    synchronized long pooledBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * Releases every free Mat
+     */
+    synchronized void clear() {
+        free.forEach(Mat::release);
+        free.clear();
+        freeBytes = 0;
+    }
+}
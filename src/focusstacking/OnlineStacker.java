@@ -0,0 +1,141 @@
+package focusstacking;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Stacks frames while they are captured (e.g. a tethered camera writing into the input directory of the engine)
+ * Every frame updates the focus maps, covering sets and selection of the GeneralizedFocus engine as it arrives. The
+ * frames are expected in focus order. Since the focus of a cell is uni modal over the stack, the stacking is done as
+ * soon as every foreground cell has passed its sharpest frame and every other cell stayed flat for flatFrames frames:
+ * no further frame can improve any cell (see GeneralizedFocus.settledCells).
+ */
+public final class OnlineStacker {
+    private static final long POLL_MILLIS = 200;
+
+    private final GeneralizedFocus engine;
+    private final Set<String> added = new HashSet<>();
+    private final Map<String, Long> pendingSizes = new HashMap<>();
+    private int flatFrames = 8;
+
+    OnlineStacker(GeneralizedFocus engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Number of frames a cell has to stay within the covering threshold to count as background, a foreground cell
+     * whose sharp frame comes later than that is missed
+     */
+    void setFlatFrames(int flatFrames) {
+        this.flatFrames = flatFrames;
+    }
+
+    /**
+     * Adds a frame which is already in memory (owned by the caller)
+     *
+     * @return true once further frames can't improve the result
+     */
+    boolean add(Mat frame) {
+        engine.addFrame(frame);
+        return isDone();
+    }
+
+    /**
+     * Adds the file of the engine's input directory, files which can't be decoded (yet) aren't added
+     *
+     * @return whether the file was added
+     */
+    boolean add(String fileName) {
+        if (engine.addFrame(fileName) == null) return false;
+        added.add(fileName);
+        return true;
+    }
+
+    /**
+     * Whether every cell is settled: past its sharpest frame or background (false as long as there is no frame)
+     */
+    boolean isDone() {
+        CellSet settled = engine.settledCells(flatFrames);
+        return settled.capacity() > 0 && settled.size() == settled.capacity();
+    }
+
+    /**
+     * Composite of the frames so far, owned by the engine until the next preview
+     */
+    Mat preview() {
+        return engine.preview();
+    }
+
+    /**
+     * Adds the files of the input directory, those already there in name order and then new ones as they are written,
+     * until the stack is done or no new file arrived for idleMillis, then writes the result with generalFocus
+     * A file is added once its size stayed the same between two polls, so frames which are still being written are
+     * skipped. previews gets a new composite after every added frame.
+     */
+    void watch(long idleMillis, Consumer<Mat> previews) throws IOException, InterruptedException {
+        Path directory = Paths.get(engine.getInputPath());
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            long lastFrame = System.currentTimeMillis();
+            while (true) {
+                if (addPending(directory.toFile())) {
+                    lastFrame = System.currentTimeMillis();
+                    previews.accept(preview());
+                    if (isDone()) {
+                        System.out.println("every cell has passed its sharpest frame or is background, stopping after "
+                                + added.size() + " frames");
+                        break;
+                    }
+                } else if (System.currentTimeMillis() - lastFrame > idleMillis) {
+                    System.out.println("no new frame for " + idleMillis + " ms, stopping after " + added.size() + " frames");
+                    break;
+                }
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+        }
+        if (!added.isEmpty()) engine.generalFocus();
+    }
+
+    /**
+     * Adds the complete files which aren't part of the stack yet
+     *
+     * @return whether a file was added
+     */
+    private boolean addPending(File directory) {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null) return false;
+        Arrays.sort(files);
+        boolean any = false;
+        for (File file : files) {
+            String name = file.getName();
+            if (added.contains(name)) continue;
+            Long previous = pendingSizes.put(name, file.length());
+            if (previous == null || previous != file.length() || file.length() == 0) continue;
+            if (add(name)) {
+                pendingSizes.remove(name);
+                System.out.println("frame " + name + " added, " + engine.getSelectedImages().size() + " images selected");
+                any = true;
+            }
+        }
+        return any;
+    }
+}
@@ -0,0 +1,50 @@
+package focusstacking;
+
+import org.opencv.core.Core;
+
+/**
+ * Loads the OpenCV native library once, the first time something needs it
+ * The library is looked up on java.library.path first, the OpenCV jar of the Maven build (org.openpnp) also carries
+ * the libraries of the common platforms and extracts the one of this platform if it isn't installed.
+ * The selection of GeneralizedFocus can run on heap arrays only (see setPureJavaSelection), so runs which never decode
+ * at full resolution or compose, like a sweep without pairs to compose, don't pay for loading the library at all
+ */
+public final class OpenCv {
+    private static volatile boolean loaded;
+
+    private OpenCv() {
+    }
+
+    /**
+     * Loads the library unless it is already loaded, safe to call from any thread and as often as needed
+     */
+    static void load() {
+        if (loaded) return;
+        synchronized (OpenCv.class) {
+            if (!loaded) {
+                try {
+                    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+                } catch (UnsatisfiedLinkError e) {
+                    if (!loadBundled()) throw e;
+                }
+                loaded = true;
+            }
+        }
+    }
+
+    /**
+     * @return whether the jar bundles the library (nu.pattern.OpenCV), which then loaded it
+     */
+    private static boolean loadBundled() {
+        try {
+            Class.forName("nu.pattern.OpenCV").getMethod("loadLocally").invoke(null);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (ReflectiveOperationException e) {
+            UnsatisfiedLinkError error = new UnsatisfiedLinkError("couldn't load the bundled " + Core.NATIVE_LIBRARY_NAME);
+            error.initCause(e);
+            throw error;
+        }
+    }
+}
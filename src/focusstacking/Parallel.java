@@ -0,0 +1,39 @@
+package focusstacking;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Runs an index based loop on a ForkJoinPool limited to a given number of threads
+ * There is one pool per parallelism, created on first use and shared by every caller (concurrent scenes of a batch,
+ * the jobs of the daemon, ...), so a loop doesn't pay for starting threads and the callers together never run more
+ * than parallelism threads per level. The pool threads are daemon threads, they don't keep the JVM alive.
+ */
+public final class Parallel {
+    private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private Parallel() {
+    }
+
+    /**
+     * Calls body for every index in [0, tasks) using at most parallelism threads.
+     * With a parallelism of 1 the loop runs on the calling thread in index order.
+     * Exceptions thrown by the body are rethrown to the caller.
+     * CPU time and allocations of the pool threads are added to the RunMetrics phase running on the calling thread.
+     */
+    static void forEach(int parallelism, int tasks, IntConsumer body) {
+        if (parallelism <= 1 || tasks <= 1) {
+            for (int i = 0; i < tasks; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+        RunMetrics.Phase phase = RunMetrics.currentPhase();
+        IntConsumer task = phase == null ? body : phase.track(body);
+        POOLS.computeIfAbsent(parallelism, ForkJoinPool::new)
+                .submit(() -> IntStream.range(0, tasks).parallel().forEach(task)).join();
+    }
+}
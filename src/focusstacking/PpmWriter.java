@@ -0,0 +1,56 @@
+package focusstacking;
+
+import org.opencv.core.Mat;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes an 8 bit color image as binary PPM (P6) band after band, so the image never has to be in memory as a whole
+ */
+public final class PpmWriter implements AutoCloseable {
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private int written;
+
+    PpmWriter(Path path, int width, int height) throws IOException {
+        this.out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 20);
+        this.width = width;
+        this.height = height;
+        out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Appends the rows of an 8 bit BGR band (width columns)
+     */
+    void write(Mat band) throws IOException {
+        if (band.cols() != width || written + band.rows() > height) {
+            throw new IllegalArgumentException("Expected at most " + (height - written) + " rows of " + width
+                    + " pixels but got " + band.rows() + " rows of " + band.cols());
+        }
+        byte[] row = new byte[3 * width];
+        for (int r = 0; r < band.rows(); r++) {
+            band.get(r, 0, row);
+            for (int i = 0; i < row.length; i += 3) {
+                byte blue = row[i];
+                row[i] = row[i + 2];
+                row[i + 2] = blue;
+            }
+            out.write(row);
+        }
+        written += band.rows();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        if (written != height) {
+            throw new IOException("only " + written + " of " + height + " rows were written");
+        }
+    }
+}
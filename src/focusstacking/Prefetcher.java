@@ -0,0 +1,87 @@
+package focusstacking;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a task (usually read and decode) on every file of a list on a few threads and hands the results out in the
+ * order of the list, so the caller works on one file while the next ones are decoded
+ * At most depth results are in flight or waiting for the caller, which bounds the memory the decoded images take:
+ * a new file is only started when the caller takes a result.
+ * CPU time and allocations of the threads are added to the RunMetrics phase running when the Prefetcher is created.
+ */
+public final class Prefetcher<T> implements AutoCloseable {
+    private final File[] files;
+    private final Task<T> task;
+    private final ExecutorService executor;
+    private final RunMetrics.Phase phase = RunMetrics.currentPhase();
+    private final ArrayDeque<Future<T>> pending = new ArrayDeque<>();
+    private int started;
+
+    interface Task<T> {
+        T run(File file) throws IOException;
+    }
+
+    /**
+     * @param parallelism number of threads running the task
+     * @param depth       maximum number of results decoded ahead of the caller
+     */
+    Prefetcher(File[] files, int parallelism, int depth, Task<T> task) {
+        this.files = files;
+        this.task = task;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < Math.max(1, depth); i++) {
+            startNext();
+        }
+    }
+
+    boolean hasNext() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * The result of the next file, waits until it is there
+     * Exceptions of the task are rethrown, the files after it are still available
+     */
+    T next() throws IOException {
+        Future<T> future = pending.removeFirst();
+        startNext();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while decoding", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void startNext() {
+        if (started == files.length) return;
+        File file = files[started++];
+        Callable<T> work = () -> task.run(file);
+        pending.addLast(executor.submit(phase == null ? work : phase.track(work)));
+    }
+
+    /**
+     * Stops the threads, results which weren't taken are dropped
+     */
+    @Override
+    public void close() {
+        pending.forEach(future -> future.cancel(true));
+        pending.clear();
+        executor.shutdownNow();
+    }
+}
@@ -1,3 +1,5 @@
+package focusstacking;
+
 import java.io.PrintStream;
 
 import static java.lang.String.format;
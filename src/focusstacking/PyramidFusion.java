@@ -0,0 +1,203 @@
+package focusstacking;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi resolution focus fusion: the images are decomposed into Laplacian pyramids, every detail level keeps per pixel
+ * the coefficient with the largest absolute value over the stack and the base level is the average of the stack
+ * The image is split into tiles with an overlap (halo) which covers the reach of the pyramid filters, every tile has
+ * its own fused pyramid and the tiles are processed in parallel. Frames are folded in one at a time as they arrive,
+ * so only the fused pyramid (16 bit coefficients) is kept and never the pyramids of all frames.
+ * A tile is only finished once the last frame is folded in, so the fused pyramids of all tiles together cover the whole
+ * frame: about 2 bytes per channel and 1 byte of activity per pixel over 4/3 of the pixels (the levels), i.e. 9 to 10
+ * bytes per pixel for color frames, times the halo overlap ((tileSize + 2 halo) / tileSize)^2. The tiles bound the
+ * working set of a fold, not the fused state; memory bounded by the band height needs FocusStacking.focusStackInBands,
+ * which fuses one band of the frames at a time. result() releases every tile right after writing it, so the output
+ * replaces the pyramids instead of adding to them.
+ */
+public final class PyramidFusion {
+    private final int parallelism;
+    private final int levels;
+    private final int tileSize;
+    private List<Tile> tiles;
+    private int rows;
+    private int cols;
+    private int type;
+    private int count;
+
+    /**
+     * @param parallelism number of tiles processed at the same time
+     * @param levels      number of detail levels, the base level is 2^levels times smaller than the image
+     * @param tileSize    side of a tile without its halo, rounded up to a multiple of 2^levels
+     */
+    PyramidFusion(int parallelism, int levels, int tileSize) {
+        this.parallelism = parallelism;
+        this.levels = levels;
+        int step = 1 << levels;
+        this.tileSize = (tileSize + step - 1) / step * step;
+    }
+
+    /**
+     * Folds one frame (8 bit, 1 or 3 channels) into the fused pyramids, the frame isn't kept
+     */
+    void add(Mat frame) {
+        if (tiles == null) {
+            rows = frame.rows();
+            cols = frame.cols();
+            type = frame.type();
+            tiles = split();
+        } else if (frame.rows() != rows || frame.cols() != cols || frame.type() != type) {
+            throw new IllegalArgumentException("Expected a frame of " + cols + "x" + rows + " but got "
+                    + frame.cols() + "x" + frame.rows());
+        }
+        boolean first = count == 0;
+        Parallel.forEach(parallelism, tiles.size(), t -> tiles.get(t).add(frame, first));
+        count++;
+    }
+
+    /**
+     * Reconstructs the fused image from the pyramids of all tiles, every tile is released once its part is written
+     * This ends the fusion, the next frame starts a new one.
+     *
+     * @return the fused image, owned by the caller, or null if no frame was added
+     */
+    Mat result() {
+        if (count == 0) return null;
+        Mat output = new Mat(rows, cols, type);
+        int frames = count;
+        Parallel.forEach(parallelism, tiles.size(), t -> {
+            Tile tile = tiles.get(t);
+            tile.reconstruct(output, frames);
+            tile.release();
+        });
+        tiles = null;
+        count = 0;
+        return output;
+    }
+
+    /**
+     * Releases the fused pyramids, the next frame starts a new fusion
+     */
+    void release() {
+        if (tiles != null) tiles.forEach(Tile::release);
+        tiles = null;
+        count = 0;
+    }
+
+    /**
+     * Tiles of tileSize with a halo of 4 * 2^levels pixels, the corners of the padded regions are multiples of 2^levels
+     * so every tile samples its pyramid on the same grid
+     */
+    private List<Tile> split() {
+        int halo = 4 << levels;
+        List<Tile> split = new ArrayList<>();
+        for (int y = 0; y < rows; y += tileSize) {
+            for (int x = 0; x < cols; x += tileSize) {
+                int top = Math.max(0, y - halo);
+                int left = Math.max(0, x - halo);
+                int bottom = Math.min(rows, y + tileSize + halo);
+                int right = Math.min(cols, x + tileSize + halo);
+                split.add(new Tile(new Rect(left, top, right - left, bottom - top),
+                        new Rect(x, y, Math.min(tileSize, cols - x), Math.min(tileSize, rows - y))));
+            }
+        }
+        return split;
+    }
+
+    private final class Tile {
+        private final Rect region;
+        private final Rect core;
+        private final Mat[] details = new Mat[levels];
+        private final Mat[] activities = new Mat[levels];
+        private final Mat baseSum = new Mat();
+        private final Mat sharper = new Mat();
+
+        Tile(Rect region, Rect core) {
+            this.region = region;
+            this.core = core;
+        }
+
+        void add(Mat frame, boolean first) {
+            Mat roi = frame.submat(region.y, region.y + region.height, region.x, region.x + region.width);
+            Mat current = new Mat();
+            roi.convertTo(current, CvType.CV_16S);
+            roi.release();
+            for (int l = 0; l < levels; l++) {
+                Mat down = new Mat();
+                Mat up = new Mat();
+                Imgproc.pyrDown(current, down);
+                Imgproc.pyrUp(down, up, current.size());
+                Core.subtract(current, up, current);
+                fold(l, current, first);
+                up.release();
+                current.release();
+                current = down;
+            }
+            Mat base = new Mat();
+            current.convertTo(base, CvType.CV_32S);
+            current.release();
+            if (first) base.copyTo(baseSum);
+            else Core.add(baseSum, base, baseSum);
+            base.release();
+        }
+
+        /**
+         * Keeps the detail coefficients wherever they are strictly stronger than those of all previous frames
+         */
+        private void fold(int level, Mat detail, boolean first) {
+            Mat activity = new Mat();
+            Core.convertScaleAbs(detail, activity);
+            if (activity.channels() == 3) {
+                Mat gray = new Mat();
+                Imgproc.cvtColor(activity, gray, Imgproc.COLOR_BGR2GRAY);
+                activity.release();
+                activity = gray;
+            }
+            if (first) {
+                details[level] = detail.clone();
+                activities[level] = activity;
+                return;
+            }
+            Core.compare(activity, activities[level], sharper, Core.CMP_GT);
+            detail.copyTo(details[level], sharper);
+            activity.copyTo(activities[level], sharper);
+            activity.release();
+        }
+
+        void reconstruct(Mat output, int count) {
+            Mat current = new Mat();
+            baseSum.convertTo(current, CvType.CV_16S, 1.0 / count, 0);
+            for (int l = levels - 1; l >= 0; l--) {
+                Mat up = new Mat();
+                Imgproc.pyrUp(current, up, details[l].size());
+                Core.add(up, details[l], up);
+                current.release();
+                current = up;
+            }
+            int top = core.y - region.y;
+            int left = core.x - region.x;
+            Mat inner = current.submat(top, top + core.height, left, left + core.width);
+            Mat target = output.submat(core.y, core.y + core.height, core.x, core.x + core.width);
+            inner.convertTo(target, CvType.CV_8U);
+            inner.release();
+            target.release();
+            current.release();
+        }
+
+        void release() {
+            for (int l = 0; l < levels; l++) {
+                if (details[l] != null) details[l].release();
+                if (activities[l] != null) activities[l].release();
+            }
+            baseSum.release();
+            sharper.release();
+        }
+    }
+}
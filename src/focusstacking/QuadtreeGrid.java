@@ -0,0 +1,67 @@
+package focusstacking;
+
+import java.util.Arrays;
+
+/**
+ * Grid of variable size cells: the cells of a uniform nRows x nCols grid, some of them split into quadrants
+ * recursively. A leaf is the part (row, col) of the 2^depth x 2^depth split of its grid cell, its bounds in an image
+ * follow from the uniform grid of that image, so a leaf covers the same part of a low resolution proxy and of the full
+ * resolution image. The leaves are numbered in the order they were added.
+ */
+public final class QuadtreeGrid {
+    final int nRows;
+    final int nCols;
+    /**
+     * cell, depth, row and col of every leaf
+     */
+    private int[] leaves = new int[64];
+    private int size;
+
+    QuadtreeGrid(int nRows, int nCols) {
+        this.nRows = nRows;
+        this.nCols = nCols;
+    }
+
+    void add(int cell, int depth, int row, int col) {
+        if (4 * size + 4 > leaves.length) leaves = Arrays.copyOf(leaves, 2 * leaves.length);
+        leaves[4 * size] = cell;
+        leaves[4 * size + 1] = depth;
+        leaves[4 * size + 2] = row;
+        leaves[4 * size + 3] = col;
+        size++;
+    }
+
+    /**
+     * Number of leaves
+     */
+    int leaves() {
+        return size;
+    }
+
+    /**
+     * Cell of the uniform grid (r * nCols + c) containing the leaf
+     */
+    int cell(int leaf) {
+        return leaves[4 * leaf];
+    }
+
+    /**
+     * {top, left, bottom, right} of the leaf in an image of rows x cols pixels (bottom and right exclusive)
+     */
+    int[] bounds(int leaf, int rows, int cols) {
+        return bounds(cell(leaf), leaves[4 * leaf + 1], leaves[4 * leaf + 2], leaves[4 * leaf + 3], rows, cols);
+    }
+
+    /**
+     * Bounds of the part (row, col) of the 2^depth x 2^depth split of a cell in an image of rows x cols pixels
+     */
+    int[] bounds(int cell, int depth, int row, int col, int rows, int cols) {
+        int rowDif = rows / nRows;
+        int colDif = cols / nCols;
+        int top = cell / nCols * rowDif;
+        int left = cell % nCols * colDif;
+        int n = 1 << depth;
+        return new int[]{top + rowDif * row / n, left + colDif * col / n,
+                top + rowDif * (row + 1) / n, left + colDif * (col + 1) / n};
+    }
+}
@@ -0,0 +1,254 @@
+package focusstacking;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Per phase measurements of one stacking run (scene): wall time, CPU time, heap bytes allocated and bytes of native
+ * Mats created. CPU time and allocations are taken from the thread running the phase plus the pool threads working
+ * for it through Parallel or a Prefetcher, so concurrent scenes don't distort each other. Phases with the same name add up.
+ * Every phase is also committed as a JFR event (focusstacking.Phase), the totals can be written as a JSON record.
+ */
+public final class RunMetrics {
+    private static final ThreadLocal<Phase> CURRENT = new ThreadLocal<>();
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private final String scene;
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+    RunMetrics(String scene) {
+        this.scene = scene;
+    }
+
+    /**
+     * Starts measuring a phase on the calling thread, the phase ends when it is closed
+     */
+    Phase start(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * Runs body as the phase name on the calling thread, for phases which don't record anything themselves
+     */
+    void run(String name, Runnable body) {
+        Phase phase = start(name);
+        try {
+            body.run();
+        } finally {
+            phase.close();
+        }
+    }
+
+    /**
+     * As run, for a body with a result
+     */
+    <T> T get(String name, Supplier<T> body) {
+        Phase phase = start(name);
+        try {
+            return body.get();
+        } finally {
+            phase.close();
+        }
+    }
+
+    /**
+     * The phase running on the calling thread, null if there is none
+     */
+    static Phase currentPhase() {
+        return CURRENT.get();
+    }
+
+    /**
+     * JSON record with the totals of every phase, times in nanoseconds and sizes in bytes
+     */
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"scene\" : ").append(Json.quote(scene)).append(",\n  \"phases\" : [");
+        String separator = "\n";
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            long[] v = phase.getValue();
+            json.append(separator)
+                    .append("    {\"phase\" : ").append(Json.quote(phase.getKey()))
+                    .append(", \"wallNanos\" : ").append(v[0])
+                    .append(", \"cpuNanos\" : ").append(v[1])
+                    .append(", \"allocatedBytes\" : ").append(v[2])
+                    .append(", \"nativeMatBytes\" : ").append(v[3])
+                    .append("}");
+            separator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    void writeJson(String path) {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(path)), false, StandardCharsets.UTF_8.name())) {
+            out.print(toJson());
+        } catch (IOException e) {
+            System.out.println("couldn't write the metrics to " + path + " : " + e.getMessage());
+        }
+    }
+
+    private synchronized void add(String name, long wall, long cpu, long allocated, long nativeBytes) {
+        long[] v = phases.computeIfAbsent(name, k -> new long[4]);
+        v[0] += wall;
+        v[1] += cpu;
+        v[2] += allocated;
+        v[3] += nativeBytes;
+    }
+
+    /**
+     * A running phase, see RunMetrics.start
+     */
+    final class Phase implements AutoCloseable {
+        private final String name;
+        private final Thread owner = Thread.currentThread();
+        private final Phase outer = CURRENT.get();
+        private final PhaseEvent event = new PhaseEvent();
+        private final long wallStart = System.nanoTime();
+        private final long cpuStart = cpuTime();
+        private final long allocatedStart = allocatedBytes();
+        private final LongAdder workerCpu = new LongAdder();
+        private final LongAdder workerAllocated = new LongAdder();
+        private final LongAdder nativeBytes = new LongAdder();
+
+        private Phase(String name) {
+            this.name = name;
+            event.begin();
+            CURRENT.set(this);
+        }
+
+        /**
+         * Records native memory (Mat data) created during the phase
+         */
+        void addNativeBytes(long bytes) {
+            nativeBytes.add(bytes);
+        }
+
+        /**
+         * Wraps a loop body running on pool threads so its CPU time and allocations are added to this phase
+         * Work the owner thread does itself is already part of its own measurement
+         */
+        IntConsumer track(IntConsumer body) {
+            return i -> {
+                if (Thread.currentThread() == owner) {
+                    body.accept(i);
+                    return;
+                }
+                long cpu = cpuTime();
+                long allocated = allocatedBytes();
+                try {
+                    body.accept(i);
+                } finally {
+                    workerCpu.add(cpuTime() - cpu);
+                    workerAllocated.add(allocatedBytes() - allocated);
+                }
+            };
+        }
+
+        /**
+         * As track for a task submitted to an executor (see Prefetcher)
+         */
+        <T> Callable<T> track(Callable<T> body) {
+            return () -> {
+                if (Thread.currentThread() == owner) return body.call();
+                long cpu = cpuTime();
+                long allocated = allocatedBytes();
+                try {
+                    return body.call();
+                } finally {
+                    workerCpu.add(cpuTime() - cpu);
+                    workerAllocated.add(allocatedBytes() - allocated);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            long wall = System.nanoTime() - wallStart;
+            long cpu = cpuTime() - cpuStart + workerCpu.sum();
+            long allocated = allocatedBytes() - allocatedStart + workerAllocated.sum();
+            add(name, wall, cpu, allocated, nativeBytes.sum());
+            if (outer != null) {
+                outer.workerCpu.add(workerCpu.sum());
+                outer.workerAllocated.add(workerAllocated.sum());
+                outer.nativeBytes.add(nativeBytes.sum());
+            }
+            if (outer == null) CURRENT.remove();
+            else CURRENT.set(outer);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.scene = scene;
+                event.phase = name;
+                event.cpuTime = cpu;
+                event.allocatedBytes = allocated;
+                event.nativeMatBytes = nativeBytes.sum();
+                event.commit();
+            }
+        }
+    }
+
+    @Name("focusstacking.Phase")
+    @Label("Stacking Phase")
+    @Category("Focus Stacking")
+    static final class PhaseEvent extends Event {
+        @Label("Scene")
+        String scene;
+        @Label("Phase")
+        String phase;
+        @Label("CPU Time")
+        @Timespan
+        long cpuTime;
+        @Label("Allocated")
+        @DataAmount
+        long allocatedBytes;
+        @Label("Native Mat Memory")
+        @DataAmount
+        long nativeMatBytes;
+    }
+
+    /**
+     * Bytes of the data of a Mat
+     */
+    static long bytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    private static long cpuTime() {
+        return THREADS != null ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadCpuTimeSupported() && threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadCpuTimeEnabled(true);
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+        return null;
+    }
+}
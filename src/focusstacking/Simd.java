@@ -0,0 +1,45 @@
+package focusstacking;
+
+/**
+ * Switch for the SIMD kernels of VectorKernels
+ * They need the incubating jdk.incubator.vector module (compile and run with --add-modules jdk.incubator.vector),
+ * without it the module isn't in the boot layer and everything runs on the scalar loops. VectorKernels is only loaded
+ * once a kernel is asked for, so nothing else depends on the module at run time. A kernel also needs the CPU's
+ * preferred vectors to be wide enough, on narrower ones its scalar loop is used (see improved and select).
+ */
+public final class Simd {
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    private static volatile boolean enabled = AVAILABLE;
+
+    private Simd() {
+    }
+
+    static boolean available() {
+        return AVAILABLE;
+    }
+
+    static boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether FocusMeasure.IMPROVED runs on SIMD lanes, which needs vectors of at least 256 bits
+     */
+    static boolean improved() {
+        return enabled && VectorKernels.IMPROVED_PAYS_OFF;
+    }
+
+    /**
+     * Whether the selection across the maps runs on SIMD lanes
+     */
+    static boolean select() {
+        return enabled && VectorKernels.SELECT_PAYS_OFF;
+    }
+
+    /**
+     * Switches the SIMD kernels on (only if available) or off, e.g. to compare them with the scalar loops
+     */
+    static void setEnabled(boolean on) {
+        enabled = on && AVAILABLE;
+    }
+}
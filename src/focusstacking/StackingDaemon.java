@@ -0,0 +1,308 @@
+package focusstacking;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Stays resident and stacks scenes sent as jobs to a local HTTP endpoint, so the JVM start, loading OpenCV and the
+ * cold JIT are paid once and not per scene; the Mat pool and the cache the engines are configured with stay warm too
+ * The server only listens on the loopback address. Every job gets its own engine, up to maxConcurrentJobs run at once,
+ * further jobs wait for one of them. The requests themselves are served by other threads, so /status and /shutdown
+ * answer while the jobs run.
+ * POST /stack with the parameters in the query or as form body:
+ * input (directory), output (path prefix of the results), rows, cols, background, setCover (default 16, 24, 90, 30),
+ * measure (a FocusMeasure) and engine (generalized, the default, or focusStacking)
+ * answers with a JSON summary once the job is done. GET /status counts the jobs, POST /shutdown stops the daemon once
+ * the accepted jobs are done.
+ * A web page the user visits can reach the loopback address too, so every request must name a loopback Host and carry
+ * no Origin (browsers send it with cross origin requests, which turns away DNS rebinding and cross site forms), and
+ * /stack and /shutdown must send the token of this start, which is printed and written to the token file, in the
+ * X-Stacking-Token header.
+ */
+public final class StackingDaemon {
+    private static final String TOKEN_HEADER = "X-Stacking-Token";
+
+    private final HttpServer server;
+    /**
+     * Serves the requests, jobs only wait on it to be parsed
+     */
+    private final ExecutorService control;
+    /**
+     * Runs the jobs, at most maxConcurrentJobs at once
+     */
+    private final ExecutorService jobs;
+    private final String token;
+    private final Consumer<GeneralizedFocus> configureGeneralized;
+    private final Consumer<FocusStacking> configureFocusStacking;
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * @param port                   0 picks a free port
+     * @param tokenFile              the token of this start is written to it (readable by the owner only), null if the
+     *                               printed token is enough
+     * @param configureGeneralized   applied to the engine of every job before it is filled (parallelism, pool, ...)
+     * @param configureFocusStacking the same for the FocusStacking engine
+     * @throws UnsatisfiedLinkError if OpenCV can't be loaded, which happens here rather than in the first job
+     */
+    StackingDaemon(int port, int maxConcurrentJobs, Path tokenFile, Consumer<GeneralizedFocus> configureGeneralized,
+                   Consumer<FocusStacking> configureFocusStacking) throws IOException {
+        OpenCv.load();
+        this.configureGeneralized = configureGeneralized;
+        this.configureFocusStacking = configureFocusStacking;
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.token = HexFormat.of().formatHex(secret);
+        if (tokenFile != null) writeToken(tokenFile);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.control = Executors.newCachedThreadPool();
+        this.jobs = Executors.newFixedThreadPool(Math.max(1, maxConcurrentJobs));
+        server.setExecutor(control);
+        server.createContext("/stack", this::stack);
+        server.createContext("/status", this::status);
+        server.createContext("/shutdown", this::shutdown);
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    String token() {
+        return token;
+    }
+
+    /**
+     * Serves jobs until /shutdown is requested, the jobs which were accepted until then are finished first
+     * (new ones are refused meanwhile) and answered before the server stops
+     */
+    void run() throws InterruptedException {
+        server.start();
+        System.out.println("stacking daemon listening on http://" + server.getAddress().getHostString() + ":" + port()
+                + ", " + TOKEN_HEADER + ": " + token);
+        stopped.await();
+        jobs.shutdown();
+        while (!jobs.awaitTermination(1, TimeUnit.MINUTES)) {
+            System.out.println("stacking daemon waiting for its jobs to finish");
+        }
+        server.stop(0);
+        control.shutdown();
+        System.out.println("stacking daemon stopped after " + succeeded.get() + " jobs (" + failed.get() + " failed)");
+    }
+
+    private void writeToken(Path tokenFile) throws IOException {
+        if (tokenFile.getParent() != null) Files.createDirectories(tokenFile.getParent());
+        Files.deleteIfExists(tokenFile);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        Files.writeString(tokenFile, token);
+    }
+
+    private void stack(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, error("use POST"));
+            return;
+        }
+        if (!allowed(exchange, true)) return;
+        Map<String, String> parameters = parameters(exchange);
+        String input = parameters.get("input");
+        String output = parameters.get("output");
+        if (input == null || output == null) {
+            respond(exchange, 400, error("input and output are required"));
+            return;
+        }
+        if (!input.endsWith("/") && !input.endsWith("\\")) input += File.separator;
+        if (!new File(input).isDirectory()) {
+            respond(exchange, 404, error("directory : " + input + " doesn't exist"));
+            return;
+        }
+        String engine = parameters.getOrDefault("engine", "generalized");
+        GeneralizedFocus generalizedFocus = null;
+        FocusStacking focusStacking = null;
+        try {
+            if (engine.equals("generalized")) {
+                generalizedFocus = generalized(input, output, parameters);
+            } else if (engine.equals("focusStacking")) {
+                focusStacking = new FocusStacking(input, output);
+                configureFocusStacking.accept(focusStacking);
+            } else {
+                respond(exchange, 400, error("unknown engine " + engine));
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, error(e.toString()));
+            return;
+        }
+        GeneralizedFocus generalized = generalizedFocus;
+        FocusStacking classic = focusStacking;
+        String directory = input;
+        try {
+            jobs.execute(() -> job(exchange, engine, directory, output, generalized, classic));
+        } catch (RejectedExecutionException e) {
+            respond(exchange, 503, error("the daemon is shutting down"));
+        }
+    }
+
+    /**
+     * Runs a job on the jobs pool and answers its request, whatever the job throws (errors too) fails only the job
+     */
+    private void job(HttpExchange exchange, String engine, String input, String output,
+                     GeneralizedFocus generalizedFocus, FocusStacking focusStacking) {
+        long start = System.nanoTime();
+        try {
+            String summary;
+            try {
+                summary = generalizedFocus != null ? run(generalizedFocus, input, output) : run(focusStacking, output);
+            } catch (Throwable e) {
+                failed.incrementAndGet();
+                System.out.println("job " + input + " failed : " + e);
+                respond(exchange, 500, error(e.toString()));
+                return;
+            }
+            succeeded.incrementAndGet();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("job " + input + " done in " + millis + " ms");
+            respond(exchange, 200, "{\"engine\": " + Json.quote(engine) + ", \"input\": " + Json.quote(input)
+                    + ", " + summary + ", \"millis\": " + millis + "}");
+        } catch (IOException e) {
+            System.out.println("couldn't answer job " + input + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * The engine of a job, configured from its parameters
+     */
+    private GeneralizedFocus generalized(String input, String output, Map<String, String> parameters) {
+        int rows = Integer.parseInt(parameters.getOrDefault("rows", "16"));
+        int cols = Integer.parseInt(parameters.getOrDefault("cols", "24"));
+        double background = Double.parseDouble(parameters.getOrDefault("background", "90"));
+        double setCover = Double.parseDouble(parameters.getOrDefault("setCover", "30"));
+        if (rows <= 0 || cols <= 0) throw new IllegalArgumentException("rows and cols must be positive");
+        GeneralizedFocus generalizedFocus = new GeneralizedFocus(input, output, rows, cols, background, setCover);
+        configureGeneralized.accept(generalizedFocus);
+        if (parameters.containsKey("measure")) {
+            generalizedFocus.setFocusMeasure(FocusMeasure.valueOf(parameters.get("measure")));
+        }
+        return generalizedFocus;
+    }
+
+    private String run(GeneralizedFocus generalizedFocus, String input, String output) {
+        generalizedFocus.fill();
+        if (generalizedFocus.getLowRes().isEmpty()) throw new IllegalStateException("no images in " + input);
+        generalizedFocus.generalFocus();
+        List<Integer> selected = generalizedFocus.getSelectedImages();
+        return "\"output\": " + Json.quote(output + "(generalized).jpg") + ", \"images\": "
+                + generalizedFocus.getLowRes().size() + ", \"selected\": " + selected;
+    }
+
+    private String run(FocusStacking focusStacking, String output) {
+        focusStacking.focusStackStreaming();
+        return "\"output\": " + Json.quote(output + "(FocusStacking).jpg");
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        if (!allowed(exchange, false)) return;
+        respond(exchange, 200, "{\"succeeded\": " + succeeded.get() + ", \"failed\": " + failed.get() + "}");
+    }
+
+    private void shutdown(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, error("use POST"));
+            return;
+        }
+        if (!allowed(exchange, true)) return;
+        respond(exchange, 200, "{\"stopping\": true}");
+        stopped.countDown();
+    }
+
+    /**
+     * Refuses (and answers) a request which names a foreign Host, comes from a web page (Origin) or, if the token is
+     * needed, doesn't carry the token of this start
+     */
+    private boolean allowed(HttpExchange exchange, boolean needsToken) throws IOException {
+        if (!loopbackHost(exchange.getRequestHeaders().getFirst("Host"))) {
+            respond(exchange, 403, error("the Host must be a loopback address"));
+            return false;
+        }
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            respond(exchange, 403, error("requests from web pages are refused"));
+            return false;
+        }
+        String sent = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if (needsToken && (sent == null || !MessageDigest.isEqual(
+                sent.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8)))) {
+            respond(exchange, 401, error("the " + TOKEN_HEADER + " header must hold the token the daemon printed"));
+            return false;
+        }
+        return true;
+    }
+
+    private boolean loopbackHost(String host) {
+        if (host == null) return false;
+        String port = ":" + port();
+        String name = host.endsWith(port) ? host.substring(0, host.length() - port.length()) : host;
+        return name.equalsIgnoreCase("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+    }
+
+    /**
+     * The parameters of the query and of a form body (application/x-www-form-urlencoded)
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        decode(exchange.getRequestURI().getRawQuery(), parameters);
+        try (InputStream body = exchange.getRequestBody()) {
+            decode(new String(body.readAllBytes(), StandardCharsets.UTF_8), parameters);
+        }
+        return parameters;
+    }
+
+    private static void decode(String form, Map<String, String> parameters) {
+        if (form == null || form.isEmpty()) return;
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals <= 0) continue;
+            parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8).trim());
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\": " + Json.quote(message) + "}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
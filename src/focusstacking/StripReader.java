@@ -0,0 +1,327 @@
+package focusstacking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Reads horizontal bands of images through ImageIO, so images which are too big to be decoded at once can be processed
+ * band by band. Strip or tile based formats (TIFF, PNG) are read by source region, only the band is decoded. A JPEG
+ * can't be entered in the middle, a source region decodes everything up to the end of the band, so a JPEG is decoded
+ * once from top to bottom and its rows are handed over as they come out of the decoder: reduced to the proxy on the
+ * fly by readProxy, spooled to a temporary file of raw BGR rows by open (see Bands).
+ */
+public final class StripReader {
+    private StripReader() {
+    }
+
+    /**
+     * {width, height} of the image, only the header is read
+     */
+    static int[] size(File file) throws IOException {
+        return read(file, reader -> new int[]{reader.getWidth(0), reader.getHeight(0)});
+    }
+
+    /**
+     * The rows [row, row + rows) of the image as an 8 bit BGR Mat (like imread)
+     */
+    static Mat readBand(File file, int row, int rows) throws IOException {
+        BufferedImage band = readRegion(file, row, rows);
+        Mat mat = new Mat(band.getHeight(), band.getWidth(), CvType.CV_8UC3);
+        mat.put(0, 0, bgr(band));
+        return mat;
+    }
+
+    /**
+     * The bands of the image, a JPEG is decoded right away (once) into a temporary file which is deleted on close
+     */
+    static Bands open(File file) throws IOException {
+        int[] size = size(file);
+        Path strip = Files.createTempFile("strip", ".bgr");
+        FileChannel channel = FileChannel.open(strip, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        try {
+            long rowBytes = 3L * size[0];
+            if (stream(file, (y, bgr) -> {
+                ByteBuffer buffer = ByteBuffer.wrap(bgr);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, y * rowBytes + buffer.position());
+                }
+            })) {
+                return new Bands(file, size, channel);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return new Bands(file, size, null);
+    }
+
+    /**
+     * Bands of one image, read by source region or (JPEG) from the raw rows decoded by open
+     * The temporary file takes 3 bytes per pixel on disk until the Bands are closed
+     */
+    static final class Bands implements Closeable {
+        private final File file;
+        private final int width;
+        private final int height;
+        private final FileChannel strip;
+
+        private Bands(File file, int[] size, FileChannel strip) {
+            this.file = file;
+            this.width = size[0];
+            this.height = size[1];
+            this.strip = strip;
+        }
+
+        /**
+         * The rows [row, row + rows) of the image as an 8 bit BGR Mat (like imread)
+         */
+        Mat read(int row, int rows) throws IOException {
+            if (strip == null) return readBand(file, row, rows);
+            if (row < 0 || rows <= 0 || row + rows > height) {
+                throw new IOException("rows " + row + " to " + (row + rows) + " are outside of " + file);
+            }
+            byte[] bgr = new byte[3 * width * rows];
+            ByteBuffer buffer = ByteBuffer.wrap(bgr);
+            long start = 3L * width * row;
+            while (buffer.hasRemaining()) {
+                if (strip.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("the decoded rows of " + file + " are truncated");
+                }
+            }
+            Mat mat = new Mat(rows, width, CvType.CV_8UC3);
+            mat.put(0, 0, bgr);
+            return mat;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (strip != null) strip.close();
+        }
+    }
+
+    /**
+     * Closes the bands of images (and deletes their temporary files), errors are only reported
+     */
+    static void close(Iterable<Bands> sources) {
+        for (Bands source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                System.out.println("couldn't close the bands of " + source.file + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Grayscale version of the image reduced by 8 in both directions (area average, like IMREAD_REDUCED_GRAYSCALE_8),
+     * read in bands of bandRows rows so the full image is never held in memory
+     * A JPEG is decoded once and reduced 8 rows at a time instead, whatever bandRows is
+     */
+    static GrayImage readProxy(File file, int bandRows) throws IOException {
+        int[] size = size(file);
+        byte[] pixels = new byte[((size[1] + 7) / 8) * ((size[0] + 7) / 8)];
+        byte[] rows = new byte[8 * 3 * size[0]];
+        // a progressive JPEG may hand over the rows again for a later pass, the groups are simply reduced again
+        boolean streamed = stream(file, (y, bgr) -> {
+            System.arraycopy(bgr, 0, rows, (y % 8) * bgr.length, bgr.length);
+            if (y % 8 == 7 || y == size[1] - 1) {
+                reduce(rows, size[0], y % 8 + 1, y / 8 * 8, pixels);
+            }
+        });
+        if (streamed) return new GrayImage(pixels, (size[1] + 7) / 8, (size[0] + 7) / 8);
+        int step = Math.max(8, bandRows / 8 * 8);
+        for (int y = 0; y < size[1]; y += step) {
+            int height = Math.min(step, size[1] - y);
+            reduce(bgr(readRegion(file, y, height)), size[0], height, y, pixels);
+        }
+        return new GrayImage(pixels, (size[1] + 7) / 8, (size[0] + 7) / 8);
+    }
+
+    /**
+     * readProxy for an image which is already in memory (encoded), decoded at once with ImageIO
+     */
+    static GrayImage readProxy(byte[] encoded) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(encoded));
+        if (image == null) throw new IOException("no ImageIO reader for the image");
+        byte[] pixels = new byte[((image.getHeight() + 7) / 8) * ((image.getWidth() + 7) / 8)];
+        reduce(bgr(image), image.getWidth(), image.getHeight(), 0, pixels);
+        return new GrayImage(pixels, (image.getHeight() + 7) / 8, (image.getWidth() + 7) / 8);
+    }
+
+    /**
+     * Area averages the gray values of a band of BGR pixels starting at row y (a multiple of 8) into the proxy pixels
+     */
+    private static void reduce(byte[] bgr, int width, int height, int y, byte[] pixels) {
+        int cols = (width + 7) / 8;
+        int[] sums = new int[cols];
+        int[] counts = new int[cols];
+        for (int r = 0; r < height; r += 8) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for (int rr = r; rr < Math.min(r + 8, height); rr++) {
+                for (int c = 0; c < width; c++) {
+                    int i = 3 * (rr * width + c);
+                    // the weights of COLOR_BGR2GRAY
+                    sums[c / 8] += (bgr[i] & 0xFF) * 114 + (bgr[i + 1] & 0xFF) * 587 + (bgr[i + 2] & 0xFF) * 299;
+                    counts[c / 8]++;
+                }
+            }
+            int proxyRow = (y + r) / 8;
+            for (int c = 0; c < cols; c++) {
+                pixels[proxyRow * cols + c] = (byte) ((sums[c] + counts[c] * 500) / (counts[c] * 1000));
+            }
+        }
+    }
+
+    private static BufferedImage readRegion(File file, int row, int rows) throws IOException {
+        return read(file, reader -> {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, row, reader.getWidth(0), rows));
+            return reader.read(0, param);
+        });
+    }
+
+    /**
+     * Receives the rows of a streamed image, interleaved BGR
+     */
+    private interface RowSink {
+        void row(int y, byte[] bgr) throws IOException;
+    }
+
+    /**
+     * Decodes a JPEG from top to bottom and hands every row to the sink as soon as it is decoded, nothing but the row
+     * is kept in memory
+     * ImageIO's JPEG reader stores every decoded row with one setRect on the raster of the destination image, the
+     * destination given here has a raster of the size of the image whose setRect passes the row on instead of storing
+     * it (its data buffer only holds one row)
+     *
+     * @return false if the file isn't a JPEG or its color space can't be converted to RGB by the reader (CMYK), the
+     * caller reads it by source region then
+     */
+    private static boolean stream(File file, RowSink sink) throws IOException {
+        return read(file, reader -> {
+            if (!"jpeg".equalsIgnoreCase(reader.getFormatName())) return false;
+            int width = reader.getWidth(0);
+            RowRaster raster = new RowRaster(width, reader.getHeight(0), sink);
+            ColorModel rgb = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                    Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(new BufferedImage(rgb, raster, false, null));
+            try {
+                reader.read(0, param);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (IIOException | IllegalArgumentException e) {
+                // rejected before the first row: the reader can't decode this JPEG to RGB
+                if (raster.rows == 0) return false;
+                throw e;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Raster of the size of the image which hands the rows written with setRect to a RowSink
+     */
+    private static final class RowRaster extends WritableRaster {
+        private final RowSink sink;
+        private final byte[] rgb;
+        private final byte[] bgr;
+        private int rows;
+
+        RowRaster(int width, int height, RowSink sink) {
+            super(new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, 3, 3 * width,
+                    new int[]{0, 1, 2}), new DataBufferByte(3 * width), new Point(0, 0));
+            this.sink = sink;
+            this.rgb = new byte[3 * width];
+            this.bgr = new byte[3 * width];
+        }
+
+        @Override
+        public void setRect(int dx, int dy, Raster row) {
+            if (row.getWidth() != getWidth() || row.getHeight() != 1) {
+                throw new IllegalStateException("the decoder wrote " + row.getWidth() + "x" + row.getHeight()
+                        + " pixels instead of a row");
+            }
+            row.getDataElements(row.getMinX(), row.getMinY(), row.getWidth(), 1, rgb);
+            for (int i = 0; i < rgb.length; i += 3) {
+                bgr[i] = rgb[i + 2];
+                bgr[i + 1] = rgb[i + 1];
+                bgr[i + 2] = rgb[i];
+            }
+            try {
+                sink.row(dy + row.getMinY(), bgr);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows++;
+        }
+    }
+
+    /**
+     * Interleaved BGR bytes of the image, converted if ImageIO decoded it to another layout
+     */
+    private static byte[] bgr(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D graphics = converted.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+            image = converted;
+        }
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    private interface ReaderTask<T> {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    private static <T> T read(File file, ReaderTask<T> task) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("can't read " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return task.run(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
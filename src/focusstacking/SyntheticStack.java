@@ -0,0 +1,73 @@
+package focusstacking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic focus stacks for the benchmarks
+ * A random colour texture is seen through a depth map (a tilted plane plus a bump), frame k is sharp where the depth
+ * of the scene is k and increasingly blurred further away from it. The same seed always gives the same stack.
+ */
+public final class SyntheticStack {
+    private static final int BLUR_LEVELS = 6;
+
+    private SyntheticStack() {
+    }
+
+    /**
+     * @return depth BGR images of width x height pixels
+     */
+    static List<Mat> generate(int width, int height, int depth, long seed) {
+        Random random = new Random(seed);
+        byte[] noise = new byte[width * height * 3];
+        random.nextBytes(noise);
+        Mat texture = new Mat(height, width, CvType.CV_8UC3);
+        texture.put(0, 0, noise);
+
+        int levels = Math.min(depth, BLUR_LEVELS);
+        byte[][] blurred = new byte[levels][];
+        blurred[0] = noise;
+        for (int level = 1; level < levels; level++) {
+            Mat blur = new Mat();
+            Imgproc.GaussianBlur(texture, blur, new Size(0, 0), 1.5 * level);
+            blurred[level] = new byte[noise.length];
+            blur.get(0, 0, blurred[level]);
+            blur.release();
+        }
+        texture.release();
+
+        double bumpRow = height * (0.25 + 0.5 * random.nextDouble());
+        double bumpCol = width * (0.25 + 0.5 * random.nextDouble());
+        double bumpSigma = 0.15 * Math.min(width, height);
+        float[] sceneDepth = new float[width * height];
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                double dr = r - bumpRow;
+                double dc = c - bumpCol;
+                double bump = Math.exp(-(dr * dr + dc * dc) / (2 * bumpSigma * bumpSigma));
+                sceneDepth[r * width + c] = (float) ((depth - 1) * Math.min(1, 0.6 * c / width + 0.4 * bump));
+            }
+        }
+
+        List<Mat> stack = new ArrayList<>();
+        byte[] pixels = new byte[noise.length];
+        for (int k = 0; k < depth; k++) {
+            for (int i = 0; i < sceneDepth.length; i++) {
+                int level = Math.min(levels - 1, Math.round(Math.abs(sceneDepth[i] - k)));
+                pixels[3 * i] = blurred[level][3 * i];
+                pixels[3 * i + 1] = blurred[level][3 * i + 1];
+                pixels[3 * i + 2] = blurred[level][3 * i + 2];
+            }
+            Mat frame = new Mat(height, width, CvType.CV_8UC3);
+            frame.put(0, 0, pixels);
+            stack.add(frame);
+        }
+        return stack;
+    }
+}
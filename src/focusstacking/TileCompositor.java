@@ -0,0 +1,170 @@
+package focusstacking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Composes an output image from the grid cells of several images
+ * Every cell is copied straight into its region of a preallocated output, so the composition costs about one copy
+ * of the image, and the rows of cells are composed in parallel. With a feather width above 0 the seams between cells
+ * taken from different images are blended linearly over 2 * feather pixels instead of being cut hard.
+ */
+public final class TileCompositor {
+    private final int parallelism;
+    private final int feather;
+    private final MatPool pool;
+
+    /**
+     * @param parallelism number of threads used to compose the rows of cells
+     * @param feather     half width of the blend across a seam in pixels, 0 for hard seams
+     */
+    TileCompositor(int parallelism, int feather) {
+        this(parallelism, feather, new MatPool(0));
+    }
+
+    /**
+     * @param pool the output and the blend weights are taken from the pool, give the output back to it when done
+     */
+    TileCompositor(int parallelism, int feather, MatPool pool) {
+        this.parallelism = parallelism;
+        this.feather = feather;
+        this.pool = pool;
+    }
+
+    /**
+     * @param images    the images the cells are taken from, all of the same size and type
+     * @param selection index into images for every cell r * nCols + c
+     * @return the output, nRows * (rows / nRows) x nCols * (cols / nCols) pixels (the remainder is cropped)
+     */
+    Mat compose(List<Mat> images, int nRows, int nCols, int[] selection) {
+        int rowDif = images.get(0).rows() / nRows;
+        int colDif = images.get(0).cols() / nCols;
+        Mat output = pool.acquire(rowDif * nRows, colDif * nCols, images.get(0).type());
+
+        Parallel.forEach(parallelism, nRows, r -> {
+            for (int c = 0; c < nCols; c++) {
+                copy(images.get(selection[r * nCols + c]), output, r * rowDif, c * colDif, rowDif, colDif);
+            }
+        });
+
+        int width = Math.min(feather, Math.min(rowDif, colDif) / 2);
+        if (width > 0) {
+            Mat[] vertical = ramps(rowDif, 2 * width, true);
+            Mat[] stripVertical = ramps(2 * width, 2 * width, true);
+            Mat[] horizontal = ramps(2 * width, colDif * nCols, false);
+            // seams between the cells of a row stay inside the row band
+            Parallel.forEach(parallelism, nRows, r -> blendRow(images, selection, nCols, r, colDif, width, vertical,
+                    output, r * rowDif, r * rowDif, rowDif));
+            // a seam between rows blends the two rows as composed above (their own seams already blended) across the
+            // whole width, so at the corners the weights of the four cells are the products of both ramps
+            // the strips of two seams between rows never overlap since 2 * width <= rowDif
+            Parallel.forEach(parallelism, nRows - 1, r -> {
+                if (Arrays.equals(selection, r * nCols, (r + 1) * nCols, selection, (r + 1) * nCols, (r + 2) * nCols)) {
+                    return;
+                }
+                int row = (r + 1) * rowDif - width;
+                Mat top = pool.acquire(2 * width, colDif * nCols, output.type());
+                Mat bottom = pool.acquire(2 * width, colDif * nCols, output.type());
+                for (int c = 0; c < nCols; c++) {
+                    copy(images.get(selection[r * nCols + c]), top, row, c * colDif, 2 * width, colDif, 0);
+                    copy(images.get(selection[(r + 1) * nCols + c]), bottom, row, c * colDif, 2 * width, colDif, 0);
+                }
+                blendRow(images, selection, nCols, r, colDif, width, stripVertical, top, 0, row, 2 * width);
+                blendRow(images, selection, nCols, r + 1, colDif, width, stripVertical, bottom, 0, row, 2 * width);
+                Mat target = output.submat(row, row + 2 * width, 0, colDif * nCols);
+                Imgproc.blendLinear(top, bottom, horizontal[0], horizontal[1], target);
+                target.release();
+                pool.release(top);
+                pool.release(bottom);
+            });
+            for (Mat ramp : vertical) pool.release(ramp);
+            for (Mat ramp : stripVertical) pool.release(ramp);
+            for (Mat ramp : horizontal) pool.release(ramp);
+        }
+        return output;
+    }
+
+    /**
+     * Composes the variable size cells of an adaptive grid, every leaf is copied from its image with hard seams
+     *
+     * @param selection index into images for every leaf of the grid
+     */
+    Mat compose(List<Mat> images, QuadtreeGrid grid, int[] selection) {
+        int rows = images.get(0).rows();
+        int cols = images.get(0).cols();
+        Mat output = pool.acquire(rows / grid.nRows * grid.nRows, cols / grid.nCols * grid.nCols, images.get(0).type());
+        Parallel.forEach(parallelism, grid.leaves(), leaf -> {
+            int[] b = grid.bounds(leaf, rows, cols);
+            copy(images.get(selection[leaf]), output, b[0], b[1], b[2] - b[0], b[3] - b[1]);
+        });
+        return output;
+    }
+
+    /**
+     * Blends the seams between the cells of the row of cells r which come from different images, for the image rows
+     * [row, row + rows) which are at targetRow of target (the output itself or a strip of it)
+     */
+    private static void blendRow(List<Mat> images, int[] selection, int nCols, int r, int colDif, int width,
+                                 Mat[] ramps, Mat target, int targetRow, int row, int rows) {
+        for (int c = 0; c + 1 < nCols; c++) {
+            int left = selection[r * nCols + c];
+            int right = selection[r * nCols + c + 1];
+            if (left != right) {
+                blend(images.get(left), images.get(right), target, ramps, row, (c + 1) * colDif - width, rows,
+                        2 * width, targetRow);
+            }
+        }
+    }
+
+    private static void copy(Mat image, Mat output, int row, int col, int rows, int cols) {
+        copy(image, output, row, col, rows, cols, row);
+    }
+
+    /**
+     * Copies the rows x cols pixels at (row, col) of the image to (targetRow, col) of the target
+     */
+    private static void copy(Mat image, Mat target, int row, int col, int rows, int cols, int targetRow) {
+        Mat source = image.submat(row, row + rows, col, col + cols);
+        Mat to = target.submat(targetRow, targetRow + rows, col, col + cols);
+        source.copyTo(to);
+        source.release();
+        to.release();
+    }
+
+    private static void blend(Mat first, Mat second, Mat target, Mat[] ramps, int row, int col, int rows, int cols,
+                              int targetRow) {
+        Mat a = first.submat(row, row + rows, col, col + cols);
+        Mat b = second.submat(row, row + rows, col, col + cols);
+        Mat to = target.submat(targetRow, targetRow + rows, col, col + cols);
+        Imgproc.blendLinear(a, b, ramps[0], ramps[1], to);
+        a.release();
+        b.release();
+        to.release();
+    }
+
+    /**
+     * Weights of the first and the second image for a strip, going from 1 to 0 (and 0 to 1) across its columns
+     * (alongColumns) or across its rows
+     */
+    private Mat[] ramps(int rows, int cols, boolean alongColumns) {
+        int steps = alongColumns ? cols : rows;
+        float[] first = new float[rows * cols];
+        float[] second = new float[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                float weight = ((alongColumns ? c : r) + 0.5f) / steps;
+                second[r * cols + c] = weight;
+                first[r * cols + c] = 1 - weight;
+            }
+        }
+        Mat firstWeights = pool.acquire(rows, cols, CvType.CV_32FC1);
+        Mat secondWeights = pool.acquire(rows, cols, CvType.CV_32FC1);
+        firstWeights.put(0, 0, first);
+        secondWeights.put(0, 0, second);
+        return new Mat[]{firstWeights, secondWeights};
+    }
+}
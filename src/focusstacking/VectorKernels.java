@@ -0,0 +1,102 @@
+package focusstacking;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the data parallel loops on jdk.incubator.vector, only called when Simd.enabled()
+ * The results are identical to the scalar loops: the sums are exact integers and the selection compares the same
+ * values in the same order. Lanes are as wide as the CPU prefers (8 ints on AVX2, 16 on AVX-512), the columns which
+ * don't fill a vector are done scalar. Where the preferred vectors are too narrow for a kernel to beat its scalar loop
+ * Simd doesn't use it (see IMPROVED_PAYS_OFF).
+ */
+public final class VectorKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    // as many bytes as INTS has lanes (the lower part of the smallest shape for narrow INTS), widened to ints when loaded
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, INTS.vectorBitSize() / 4)));
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // as many ints as DOUBLES has lanes, for the selected indices
+    private static final VectorSpecies<Integer> INDICES = VectorSpecies.of(int.class,
+            VectorShape.forBitSize(Math.max(64, DOUBLES.vectorBitSize() / 2)));
+    /**
+     * improved widens bytes to ints, which only pays off with vectors of at least 256 bits (AVX2, AVX-512): with 128
+     * bits (NEON, SSE) a vector holds 4 ints and the conversions cost more than the scalar loop
+     */
+    static final boolean IMPROVED_PAYS_OFF = INTS.vectorBitSize() >= 256;
+    /**
+     * select needs at least two doubles per vector
+     */
+    static final boolean SELECT_PAYS_OFF = DOUBLES.length() >= 2;
+
+    private VectorKernels() {
+    }
+
+    /**
+     * Sum of FocusMeasure.IMPROVED over a tile (before the normalisation)
+     */
+    static long improved(byte[] pixels, int stride, int rowStart, int colStart, int rows, int cols) {
+        int lanes = INTS.length();
+        long focusMeasure = 0;
+        for (int r = rowStart + 1; r < rowStart + rows - 1; r++) {
+            int i = r * stride + colStart;
+            IntVector sum = IntVector.zero(INTS);
+            int c = 1;
+            for (; c + lanes <= cols - 1; c += lanes) {
+                int p = i + c;
+                IntVector center = load(pixels, p).mul(2);
+                IntVector x = center.sub(load(pixels, p - 1)).sub(load(pixels, p + 1)).abs();
+                IntVector y = center.sub(load(pixels, p - stride)).sub(load(pixels, p + stride)).abs();
+                sum = sum.add(x).add(y);
+            }
+            focusMeasure += sum.reduceLanes(VectorOperators.ADD);
+            for (; c < cols - 1; c++) {
+                focusMeasure += Math.abs(FocusMeasure.secondDerivativeX(pixels, i + c))
+                        + Math.abs(FocusMeasure.secondDerivativeY(pixels, i + c, stride));
+            }
+        }
+        return focusMeasure;
+    }
+
+    private static IntVector load(byte[] pixels, int i) {
+        return ((IntVector) ByteVector.fromArray(BYTES, pixels, i).convertShape(VectorOperators.B2I, INTS, 0)).and(0xFF);
+    }
+
+    /**
+     * For every cell in [from, to) the index of the map with the highest value above 0 (ties keep the first map, 0 if
+     * no map is above 0) and that value, see FocusMapStore.View.select
+     */
+    static void select(double[][] maps, int from, int to, int[] selection, double[] focus) {
+        int lanes = DOUBLES.length();
+        int cell = from;
+        for (; cell + lanes <= to; cell += lanes) {
+            DoubleVector best = DoubleVector.zero(DOUBLES);
+            DoubleVector sharpest = DoubleVector.zero(DOUBLES);
+            for (int k = 0; k < maps.length; k++) {
+                DoubleVector value = DoubleVector.fromArray(DOUBLES, maps[k], cell);
+                VectorMask<Double> sharper = best.lt(value);
+                best = best.blend(value, sharper);
+                sharpest = sharpest.blend(k, sharper);
+            }
+            best.intoArray(focus, cell);
+            ((IntVector) sharpest.convertShape(VectorOperators.D2I, INDICES, 0)).intoArray(selection, cell);
+        }
+        for (; cell < to; cell++) {
+            int index = 0;
+            double value = 0;
+            for (int k = 0; k < maps.length; k++) {
+                if (value < maps[k][cell]) {
+                    value = maps[k][cell];
+                    index = k;
+                }
+            }
+            selection[cell] = index;
+            focus[cell] = value;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package focusstacking;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The integral images give the same focus measures as the direct measurement (of the pixels or of the JPEG blocks),
+ * for any rectangle and after a regrid
+ */
+class FocusIntegralTest {
+
+    @ParameterizedTest
+    @EnumSource(value = FocusMeasure.class, names = {"CHOI", "IMPROVED", "TENENGRAD", "VARIANCE_OF_LAPLACIAN"})
+    void rectanglesMatchTheMeasure(FocusMeasure measure) {
+        GrayImage image = TestStacks.noise(97, 131, 3);
+        FocusIntegral integral = FocusIntegral.of(image, measure);
+        Random random = new Random(11);
+        for (int k = 0; k < 2000; k++) {
+            int rows = 1 + random.nextInt(image.rows);
+            int cols = 1 + random.nextInt(image.cols);
+            int rowStart = random.nextInt(image.rows - rows + 1);
+            int colStart = random.nextInt(image.cols - cols + 1);
+            double expected = measure.measure(image, rowStart, colStart, rows, cols);
+            double actual = integral.measure(rowStart, colStart, rows, cols);
+            if (measure == FocusMeasure.VARIANCE_OF_LAPLACIAN) {
+                // the same integer sums, only the order of the floating point operations may differ
+                assertEquals(expected, actual, 1e-9 * Math.max(1, Math.abs(expected)));
+            } else {
+                assertEquals(expected, actual, "rectangle " + rowStart + ", " + colStart + ", " + rows + ", " + cols);
+            }
+        }
+    }
+
+    @Test
+    void blockRectanglesMatchTheBlocks(@TempDir Path stack) throws IOException {
+        TestStacks.write(stack, 384, 256, 1, 7, "jpg");
+        JpegBlocks blocks = JpegBlocks.read(Files.readAllBytes(stack.resolve("frame00.jpg")));
+        FocusIntegral integral = FocusIntegral.of(blocks);
+        Random random = new Random(13);
+        for (int k = 0; k < 2000; k++) {
+            int rows = 1 + random.nextInt(blocks.dc.rows);
+            int cols = 1 + random.nextInt(blocks.dc.cols);
+            int rowStart = random.nextInt(blocks.dc.rows - rows + 1);
+            int colStart = random.nextInt(blocks.dc.cols - cols + 1);
+            assertEquals(blocks.measure(rowStart, colStart, rows, cols), integral.measure(rowStart, colStart, rows, cols),
+                    "rectangle " + rowStart + ", " + colStart + ", " + rows + ", " + cols);
+        }
+    }
+
+    @Test
+    void pixelsHaveNoBlockTable() {
+        assertThrows(IllegalArgumentException.class, () -> FocusIntegral.of(TestStacks.noise(8, 8, 1), FocusMeasure.DCT_AC));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"png, IMPROVED", "jpg, IMPROVED", "jpg, DCT_AC"})
+    void regridMatchesAFreshEngine(String format, FocusMeasure measure, @TempDir Path stack) throws IOException {
+        TestStacks.write(stack, 384, 256, 5, 5, format);
+        GeneralizedFocus regridded = TestStacks.engine(stack, 16, 24, 2, measure);
+        regridded.selectImages();
+        for (int[] grid : new int[][]{{8, 12}, {4, 6}, {16, 24}}) {
+            regridded.regrid(grid[0], grid[1]);
+            GeneralizedFocus fresh = TestStacks.engine(stack, grid[0], grid[1], 2, measure);
+            fresh.selectImages();
+            for (int i = 0; i < fresh.getLowRes().size(); i++) {
+                assertArrayEquals(fresh.getFocusMap(i), regridded.getFocusMap(i), "grid " + grid[0] + "x" + grid[1]);
+            }
+        }
+    }
+}
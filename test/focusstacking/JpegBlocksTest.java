@@ -0,0 +1,50 @@
+package focusstacking;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The DC means JpegBlocks reads from the entropy coded data are the proxy OpenCV decodes with
+ * IMREAD_REDUCED_GRAYSCALE_8, up to the rounding of the 1/8 inverse DCT
+ */
+class JpegBlocksTest {
+    @TempDir
+    static Path stack;
+
+    @BeforeAll
+    static void writeStack() throws IOException {
+        // not a multiple of the 16x16 MCU, so the padded blocks at the right and bottom edge are compared too
+        TestStacks.write(stack, 390, 250, 4, 3, "jpg");
+        OpenCv.load();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"frame00.jpg", "frame01.jpg", "frame02.jpg", "frame03.jpg"})
+    void dcMeansAreTheReducedGrayscale(String name) throws IOException {
+        Path file = stack.resolve(name);
+        JpegBlocks blocks = JpegBlocks.read(Files.readAllBytes(file));
+        assertNotNull(blocks, "ImageIO writes baseline JPEGs");
+        Mat reduced = Imgcodecs.imread(file.toString(), Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8);
+        GrayImage expected = GrayImage.of(reduced);
+        reduced.release();
+        assertEquals(expected.rows, blocks.dc.rows);
+        assertEquals(expected.cols, blocks.dc.cols);
+        int largest = 0;
+        for (int i = 0; i < expected.pixels.length; i++) {
+            largest = Math.max(largest, Math.abs((expected.pixels[i] & 0xFF) - (blocks.dc.pixels[i] & 0xFF)));
+        }
+        assertTrue(largest <= 1, "largest difference " + largest);
+    }
+}
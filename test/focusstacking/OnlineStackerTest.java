@@ -0,0 +1,35 @@
+package focusstacking;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The online stacking stops once every cell has passed its sharpest frame, background cells don't keep it open
+ */
+class OnlineStackerTest {
+
+    @Test
+    void doneOncePastThePeaksOverAFlatBackground(@TempDir Path stack) throws IOException {
+        int depth = 6;
+        int frames = 10;
+        TestStacks.write(stack, 768, 512, depth, frames, 128, 3, "png");
+        GeneralizedFocus engine = new GeneralizedFocus(stack + "/", stack + "/out", 8, 12, 90, 30);
+        engine.setParallelism(2);
+        OnlineStacker stacker = new OnlineStacker(engine);
+        stacker.setFlatFrames(4);
+        assertFalse(stacker.isDone(), "no frame yet");
+        int done = -1;
+        for (int k = 0; k < frames && done < 0; k++) {
+            assertTrue(stacker.add(String.format("frame%02d.png", k)));
+            if (k < depth - 1) assertFalse(stacker.isDone(), "the last columns are still rising at frame " + k);
+            if (stacker.isDone()) done = k;
+        }
+        assertTrue(done >= depth, "done at frame " + done);
+    }
+}
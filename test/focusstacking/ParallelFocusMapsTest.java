@@ -0,0 +1,54 @@
+package focusstacking;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The focus maps and the selection computed on several threads are identical to a serial run
+ */
+class ParallelFocusMapsTest {
+    @TempDir
+    static Path stack;
+
+    @BeforeAll
+    static void writeStack() throws IOException {
+        TestStacks.write(stack, 384, 256, 6, 7, "png");
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = FocusMeasure.class, names = {"CHOI", "IMPROVED", "TENENGRAD", "VARIANCE_OF_LAPLACIAN"})
+    void parallelMapsAreSerialMaps(FocusMeasure measure) {
+        GeneralizedFocus serial = TestStacks.engine(stack, 8, 12, 1);
+        GeneralizedFocus parallel = TestStacks.engine(stack, 8, 12, 4);
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < serial.getLowRes().size(); i++) {
+            all.add(i);
+        }
+        serial.setFocusMeasureMapAndMem(all, measure);
+        parallel.setFocusMeasureMapAndMem(all, measure);
+        for (int i : all) {
+            assertArrayEquals(serial.getFocusMap(i), parallel.getFocusMap(i), "map of image " + i);
+        }
+    }
+
+    @Test
+    void parallelSelectionIsSerialSelection() {
+        GeneralizedFocus serial = TestStacks.engine(stack, 8, 12, 1);
+        GeneralizedFocus parallel = TestStacks.engine(stack, 8, 12, 4);
+        serial.selectImages();
+        parallel.selectImages();
+        assertEquals(serial.getSelectedImages(), parallel.getSelectedImages());
+        assertEquals(6, serial.getLowRes().size());
+    }
+}
@@ -0,0 +1,117 @@
+package focusstacking;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The set cover on CellSets selects the same images as the Set&lt;Integer&gt; version it replaced, which is kept here
+ * as the reference and run on the focus maps of the engine
+ */
+class SetCoverTest {
+    @TempDir
+    static Path stack;
+
+    @BeforeAll
+    static void writeStack() throws IOException {
+        TestStacks.write(stack, 384, 256, 6, 10, 64, 11, "png");
+    }
+
+    @ParameterizedTest
+    @CsvSource({"90, 30", "20, 5", "40, 60", "5, 120", "0, 0"})
+    void cellSetsSelectLikeIntegerSets(double backgroundThrashHold, double setCoverThrashHold) {
+        GeneralizedFocus engine = TestStacks.engine(stack, 8, 12, 1, FocusMeasure.IMPROVED,
+                backgroundThrashHold, setCoverThrashHold);
+        engine.selectImages();
+        List<double[]> maps = new ArrayList<>();
+        for (int i = 0; i < engine.getLowRes().size(); i++) {
+            maps.add(engine.getFocusMap(i));
+        }
+        assertEquals(reference(maps, backgroundThrashHold, setCoverThrashHold), engine.getSelectedImages());
+    }
+
+    /**
+     * The covering sets, foreground and reduceSelectionMap of the version before CellSet
+     */
+    private static List<Integer> reference(List<double[]> maps, double backgroundThrashHold, double setCoverThrashHold) {
+        int cells = maps.get(0).length;
+        double[] sharpest = new double[cells];
+        for (double[] map : maps) {
+            for (int cell = 0; cell < cells; cell++) {
+                sharpest[cell] = Math.max(sharpest[cell], map[cell]);
+            }
+        }
+        List<Set<Integer>> coveringSets = new ArrayList<>();
+        for (double[] map : maps) {
+            Set<Integer> covered = new HashSet<>();
+            for (int cell = 0; cell < cells; cell++) {
+                if (Math.abs(map[cell] - sharpest[cell]) <= setCoverThrashHold) covered.add(cell);
+            }
+            coveringSets.add(covered);
+        }
+        Set<Integer> foreGround = new HashSet<>();
+        for (int cell = 0; cell < cells; cell++) {
+            double standard = 0;
+            for (double[] map : maps) {
+                standard += map[cell];
+            }
+            standard /= maps.size();
+            double biggest = 0;
+            for (double[] map : maps) {
+                biggest = Math.max(biggest, Math.abs(map[cell] - standard));
+            }
+            if (biggest >= backgroundThrashHold) foreGround.add(cell);
+        }
+
+        for (int i = 0; i < coveringSets.size(); i++) {
+            coveringSets.set(i, intersection(coveringSets.get(i), foreGround));
+        }
+        coveringSets.add(new HashSet<>());
+        Set<Integer> active = new HashSet<>();
+        Set<Integer> processed = new HashSet<>();
+        List<Integer> selectedImages = new ArrayList<>();
+        for (int i = 1; i < coveringSets.size(); i++) {
+            Set<Integer> sharp = difference(coveringSets.get(i - 1), processed);
+            Set<Integer> f0 = difference(active, sharp);
+            Set<Integer> f1 = difference(sharp, active);
+            if (!f0.isEmpty()) {
+                selectedImages.add(i - 1);
+            }
+            if (!f1.isEmpty()) {
+                active = union(active, f1);
+            }
+        }
+        return selectedImages;
+    }
+
+    private static <T> Set<T> union(Set<T> setA, Set<T> setB) {
+        Set<T> tmp = new TreeSet<T>(setA);
+        tmp.addAll(setB);
+        return tmp;
+    }
+
+    private static <T> Set<T> intersection(Set<T> setA, Set<T> setB) {
+        Set<T> tmp = new TreeSet<T>();
+        for (T x : setA)
+            if (setB.contains(x))
+                tmp.add(x);
+        return tmp;
+    }
+
+    private static <T> Set<T> difference(Set<T> setA, Set<T> setB) {
+        Set<T> tmp = new TreeSet<T>(setA);
+        tmp.removeAll(setB);
+        return tmp;
+    }
+}
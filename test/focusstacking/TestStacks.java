@@ -0,0 +1,102 @@
+package focusstacking;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Small deterministic stacks for the tests, generated and written without OpenCV
+ * Like SyntheticStack a random texture is seen through a depth map (a ramp from left to right), frame k is sharp where
+ * the depth is k and box blurred further away from it.
+ */
+final class TestStacks {
+    private TestStacks() {
+    }
+
+    /**
+     * A random grayscale image
+     */
+    static GrayImage noise(int rows, int cols, long seed) {
+        byte[] pixels = new byte[rows * cols];
+        new Random(seed).nextBytes(pixels);
+        return new GrayImage(pixels, rows, cols);
+    }
+
+    /**
+     * Writes the frames of a stack as frame00.format, frame01.format, ... into directory
+     *
+     * @param format an ImageIO format name, e.g. "png" or "jpg"
+     */
+    static void write(Path directory, int width, int height, int depth, long seed, String format) throws IOException {
+        write(directory, width, height, depth, depth, 0, seed, format);
+    }
+
+    /**
+     * As write, with frames frames of which the frames from depth on are behind the scene (every column blurs again)
+     * and the top flatRows rows a uniform background
+     */
+    static void write(Path directory, int width, int height, int depth, int frames, int flatRows, long seed,
+                      String format) throws IOException {
+        int[] texture = new int[width * height];
+        Random random = new Random(seed);
+        for (int i = 0; i < texture.length; i++) {
+            texture[i] = random.nextInt(256);
+        }
+        for (int k = 0; k < frames; k++) {
+            BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int radius = Math.min(4, Math.abs(x * depth / width - k));
+                    int v = y < flatRows ? 128 : boxMean(texture, width, height, x, y, radius);
+                    frame.setRGB(x, y, v << 16 | v << 8 | v);
+                }
+            }
+            ImageIO.write(frame, format, new File(directory.toFile(), String.format("frame%02d.%s", k, format)));
+        }
+    }
+
+    private static int boxMean(int[] texture, int width, int height, int x, int y, int radius) {
+        int sum = 0;
+        int count = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                int yy = Math.max(0, Math.min(height - 1, y + dy));
+                int xx = Math.max(0, Math.min(width - 1, x + dx));
+                sum += texture[yy * width + xx];
+                count++;
+            }
+        }
+        return sum / count;
+    }
+
+    /**
+     * An engine filled from the files of directory without OpenCV (see setPureJavaSelection)
+     */
+    static GeneralizedFocus engine(Path directory, int nRows, int nCols, int parallelism) {
+        return engine(directory, nRows, nCols, parallelism, FocusMeasure.IMPROVED);
+    }
+
+    /**
+     * As engine, measuring the stack with the given focus measure
+     */
+    static GeneralizedFocus engine(Path directory, int nRows, int nCols, int parallelism, FocusMeasure measure) {
+        return engine(directory, nRows, nCols, parallelism, measure, 90, 30);
+    }
+
+    /**
+     * As engine, with the given background and set cover thresholds
+     */
+    static GeneralizedFocus engine(Path directory, int nRows, int nCols, int parallelism, FocusMeasure measure,
+                                   double backgroundThrashHold, double setCoverThrashHold) {
+        GeneralizedFocus engine = new GeneralizedFocus(directory + "/", directory + "/out", nRows, nCols,
+                backgroundThrashHold, setCoverThrashHold);
+        engine.setParallelism(parallelism);
+        engine.setFocusMeasure(measure);
+        engine.setPureJavaSelection(true);
+        engine.fill();
+        return engine;
+    }
+}
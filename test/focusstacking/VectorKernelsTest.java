@@ -0,0 +1,78 @@
+package focusstacking;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The SIMD kernels give exactly the results of the scalar loops they replace
+ */
+class VectorKernelsTest {
+
+    @BeforeEach
+    void requireVectorApi() {
+        assumeTrue(Simd.available(), "run with --add-modules jdk.incubator.vector");
+    }
+
+    @AfterEach
+    void enableSimd() {
+        Simd.setEnabled(true);
+    }
+
+    @Test
+    void improvedMatchesTheScalarLoop() {
+        GrayImage image = TestStacks.noise(120, 173, 1);
+        Random random = new Random(2);
+        for (int k = 0; k < 2000; k++) {
+            int rows = 1 + random.nextInt(image.rows);
+            int cols = 1 + random.nextInt(image.cols);
+            int rowStart = random.nextInt(image.rows - rows + 1);
+            int colStart = random.nextInt(image.cols - cols + 1);
+            Simd.setEnabled(false);
+            double scalar = FocusMeasure.IMPROVED.measure(image, rowStart, colStart, rows, cols);
+            Simd.setEnabled(true);
+            double simd = FocusMeasure.IMPROVED.measure(image, rowStart, colStart, rows, cols);
+            assertEquals(scalar, simd, "tile " + rowStart + ", " + colStart + ", " + rows + ", " + cols);
+            // the kernel itself, also where Simd leaves it out for narrow vectors
+            double kernel = (double) VectorKernels.improved(image.pixels, image.cols, rowStart, colStart, rows, cols) / cols * rows;
+            assertEquals(scalar, kernel, "tile " + rowStart + ", " + colStart + ", " + rows + ", " + cols);
+        }
+    }
+
+    @Test
+    void selectionMatchesTheScalarLoop() {
+        Random random = new Random(3);
+        int cells = 389;
+        FocusMapStore store = new FocusMapStore(cells);
+        for (int i = 0; i < 9; i++) {
+            double[] map = new double[cells];
+            for (int cell = 0; cell < cells; cell++) {
+                // few distinct values, so there are ties and cells without any focus
+                map[cell] = random.nextInt(4) * 10;
+            }
+            store.add(map);
+        }
+        List<Integer> subset = new ArrayList<>(List.of(7, 2, 5, 0, 8));
+        for (FocusMapStore.View view : new FocusMapStore.View[]{store.all(), store.subset(subset)}) {
+            int[] scalarSelection = new int[cells];
+            double[] scalarFocus = new double[cells];
+            int[] simdSelection = new int[cells];
+            double[] simdFocus = new double[cells];
+            Simd.setEnabled(false);
+            view.select(0, cells, scalarSelection, scalarFocus);
+            Simd.setEnabled(true);
+            view.select(3, cells, simdSelection, simdFocus);
+            view.select(0, 3, simdSelection, simdFocus);
+            assertArrayEquals(scalarSelection, simdSelection);
+            assertArrayEquals(scalarFocus, simdFocus);
+        }
+    }
+}